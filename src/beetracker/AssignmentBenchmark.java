@@ -0,0 +1,476 @@
+/*
+* BeeTracker
+* Copyright (C) 2016 Kay Choi
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package beetracker;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import processing.data.IntList;
+
+/**
+ * @class AssignmentBenchmark
+ * @author Kay Choi
+ * @date 19 Oct 16
+ * @description Verifies the assignment solvers against an exhaustive search
+ *   on small random problems, then times them on synthetic frames of 50 to
+ *   200 bees against the pairing loop they replaced, which scanned a dense
+ *   distance table for the closest unpaired pair once per pair. Run its main
+ *   method with the Processing core library on the class path.
+ */
+class AssignmentBenchmark {
+  private static final int numChecks = 2000;
+  private static final int maxCheckSize = 7;
+  private static final int[] beeCounts = {50, 100, 150, 200};
+  private static final int numFrames = 2000;
+  private static final int numWarmUpFrames = 500;
+  private static final float gate = .08f;
+  private static final float step = .01f;
+  private static final float dropRate = .05f;
+  private static final float tolerance = 1e-4f;
+
+  /**
+   * Runs the verification and the benchmark.
+   * @param args unused
+   */
+  public static void main(String[] args) {
+    Random random = new Random(1);
+
+    if(verify(random)) {
+      benchmark(random);
+    } else {
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Compares the optimal solver with an exhaustive search on small random
+   *   problems, and checks that both solvers return valid assignments.
+   * @param random the random number generator
+   * @return true if every check passed
+   */
+  private static boolean verify(Random random) {
+    AssignmentSolver optimal = new ShortestPathAssignment();
+    AssignmentSolver greedy = new GreedyAssignment();
+    CandidatePairs pairs = new CandidatePairs();
+    int i, numRows, numCols, numFailed = 0;
+    int[] assignment;
+    float unassignedCost, expected, actual;
+
+    for(i = 0; i < numChecks; i++) {
+      numRows = 1 + random.nextInt(maxCheckSize);
+      numCols = 1 + random.nextInt(maxCheckSize);
+      unassignedCost = 1f;
+      randomPairs(random, numRows, numCols, unassignedCost, pairs);
+
+      assignment = optimal.solve(numRows, numCols, pairs, unassignedCost);
+      expected = bruteForce(numRows, numCols, pairs, unassignedCost);
+      actual = getTotalCost(assignment, numCols, pairs, unassignedCost);
+
+      if(!(Math.abs(expected - actual) <= tolerance)) {
+        System.out.println("check " + i + ": optimal cost " + actual +
+          ", exhaustive cost " + expected);
+        numFailed++;
+      }
+
+      assignment = greedy.solve(numRows, numCols, pairs, unassignedCost);
+      if(Float.isNaN(getTotalCost(assignment, numCols, pairs,
+        unassignedCost)))
+      {
+        System.out.println("check " + i + ": invalid greedy assignment");
+        numFailed++;
+      }
+    }
+
+    System.out.println("exhaustive search: " + (numChecks - numFailed) +
+      " of " + numChecks + " checks passed");
+
+    return numFailed == 0;
+  }
+
+  /**
+   * Times the baseline pairing loop and both solvers on frames of bees
+   *   moving randomly, with some detections missing. The solver times
+   *   include gating the candidate pairs, as the baseline times include
+   *   filling its distance table. Reports the cost of the baseline and the
+   *   greedy assignments relative to the optimal ones, and how often the
+   *   greedy solver pairs a row differently from the baseline.
+   * @param random the random number generator
+   */
+  private static void benchmark(Random random) {
+    AssignmentSolver optimal = new ShortestPathAssignment();
+    AssignmentSolver greedy = new GreedyAssignment();
+    CandidatePairs pairs = new CandidatePairs();
+    int frame, i, numCols, numDiffering;
+    long baselineTime, optimalTime, greedyTime, gateTime, start;
+    double baselineCost, optimalCost, greedyCost;
+    int[] baselineResult, optimalResult, greedyResult;
+
+    System.out.println("bees, baseline us/frame, optimal us/frame, " +
+      "greedy us/frame, baseline cost excess %, greedy cost excess %, " +
+      "greedy rows differing from baseline %");
+
+    for(int numBees : beeCounts) {
+      float[] xs = new float[numBees], ys = new float[numBees];
+      float[] newXs = new float[numBees], newYs = new float[numBees];
+
+      baselineTime = optimalTime = greedyTime = 0;
+      baselineCost = optimalCost = greedyCost = 0;
+      numDiffering = 0;
+
+      for(i = 0; i < numBees; i++) {
+        xs[i] = random.nextFloat();
+        ys[i] = random.nextFloat();
+      }
+
+      for(frame = 0; frame < numWarmUpFrames + numFrames; frame++) {
+        numCols = nextFrame(random, xs, ys, newXs, newYs);
+
+        start = System.nanoTime();
+        baselineResult = baselinePairing(xs, ys, newXs, newYs, numCols);
+        if(frame >= numWarmUpFrames) {
+          baselineTime += System.nanoTime() - start;
+        }
+
+        start = System.nanoTime();
+        gatePairs(xs, ys, newXs, newYs, numCols, pairs);
+        gateTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        optimalResult = optimal.solve(numBees, numCols, pairs, gate);
+        if(frame >= numWarmUpFrames) {
+          optimalTime += System.nanoTime() - start + gateTime;
+        }
+
+        start = System.nanoTime();
+        greedyResult = greedy.solve(numBees, numCols, pairs, gate);
+        if(frame >= numWarmUpFrames) {
+          greedyTime += System.nanoTime() - start + gateTime;
+
+          baselineCost += getTotalCost(baselineResult, numCols, pairs, gate);
+          optimalCost += getTotalCost(optimalResult, numCols, pairs, gate);
+          greedyCost += getTotalCost(greedyResult, numCols, pairs, gate);
+
+          for(i = 0; i < numBees; i++) {
+            if(baselineResult[i] != greedyResult[i]) {
+              numDiffering++;
+            }
+          }
+        }
+      }
+
+      System.out.println(String.format(
+        Locale.ROOT,
+        "%d, %.1f, %.1f, %.1f, %.2f, %.2f, %.2f",
+        numBees,
+        baselineTime/1000.0/numFrames,
+        optimalTime/1000.0/numFrames,
+        greedyTime/1000.0/numFrames,
+        100.0*(baselineCost - optimalCost)/optimalCost,
+        100.0*(greedyCost - optimalCost)/optimalCost,
+        100.0*numDiffering/numBees/numFrames
+      ));
+    }
+  }
+
+  /**
+   * Pairs bees with detections the way tracking did before the assignment
+   *   solvers: fills a dense distance table, then repeatedly scans it for the
+   *   closest pair of an unpaired bee and an unpaired detection, stopping at
+   *   the first pair outside the gate.
+   * @param xs the x coordinates of the bees
+   * @param ys the y coordinates of the bees
+   * @param newXs the x coordinates of the detections
+   * @param newYs the y coordinates of the detections
+   * @param numCols the number of detections
+   * @return an array mapping each bee to a detection, or to -1
+   */
+  private static int[] baselinePairing(
+    float[] xs,
+    float[] ys,
+    float[] newXs,
+    float[] newYs,
+    int numCols
+  ) {
+    int[] result = new int[xs.length];
+    IntList checkedIndicesOld = new IntList();
+    IntList checkedIndicesNew = new IntList();
+    float[][] distances;
+    float minDist;
+    int i, j, minI, minJ, numPairs;
+
+    Arrays.fill(result, -1);
+
+    if(xs.length > 0 && numCols > 0) {
+      distances = new float[xs.length][numCols];
+
+      for(i = 0; i < xs.length; i++) {
+        for(j = 0; j < numCols; j++) {
+          distances[i][j] = BeeTracker.dist(xs[i], ys[i], newXs[j], newYs[j]);
+        }
+      }
+
+      minI = minJ = -1;
+      numPairs = Math.min(xs.length, numCols);
+
+      while(checkedIndicesOld.size() < numPairs) {
+        minDist = Float.MAX_VALUE;
+
+        for(i = 0; i < xs.length; i++) {
+          if(!checkedIndicesOld.hasValue(i)) {
+            for(j = 0; j < numCols; j++) {
+              if(!checkedIndicesNew.hasValue(j)) {
+                if(distances[i][j] < minDist) {
+                  minI = i;
+                  minJ = j;
+                  minDist = distances[i][j];
+                }
+              }
+            }
+          }
+        }
+
+        checkedIndicesOld.append(minI);
+        checkedIndicesNew.append(minJ);
+
+        if(minDist < gate) {
+          result[minI] = minJ;
+        } else {
+          break;
+        }
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Fills a set of candidate pairs with random costs below the unassigned
+   *   cost, leaving out about half of all pairs.
+   * @param random the random number generator
+   * @param numRows the number of rows
+   * @param numCols the number of columns
+   * @param unassignedCost the cost of leaving a row unassigned
+   * @param pairs the candidate pairs to fill
+   */
+  private static void randomPairs(
+    Random random,
+    int numRows,
+    int numCols,
+    float unassignedCost,
+    CandidatePairs pairs
+  ) {
+    pairs.clear();
+
+    for(int i = 0; i < numRows; i++) {
+      for(int j = 0; j < numCols; j++) {
+        if(random.nextBoolean()) {
+          pairs.add(i, j, random.nextFloat()*unassignedCost);
+        }
+      }
+    }
+  }
+
+  /**
+   * Moves every bee by a random step and detects it with some probability.
+   *   The detections are shuffled, as blob order is unrelated to trajectory
+   *   order.
+   * @param random the random number generator
+   * @param xs the x coordinates of the bees, updated in place
+   * @param ys the y coordinates of the bees, updated in place
+   * @param newXs the array to store the x coordinates of the detections in
+   * @param newYs the array to store the y coordinates of the detections in
+   * @return the number of detections
+   */
+  private static int nextFrame(
+    Random random,
+    float[] xs,
+    float[] ys,
+    float[] newXs,
+    float[] newYs
+  ) {
+    int i, j, numCols = 0;
+    float tmp;
+
+    for(i = 0; i < xs.length; i++) {
+      xs[i] = Math.min(1f, Math.max(0f,
+        xs[i] + (float)random.nextGaussian()*step));
+      ys[i] = Math.min(1f, Math.max(0f,
+        ys[i] + (float)random.nextGaussian()*step));
+
+      if(random.nextFloat() >= dropRate) {
+        newXs[numCols] = xs[i] + (float)random.nextGaussian()*step;
+        newYs[numCols] = ys[i] + (float)random.nextGaussian()*step;
+        numCols++;
+      }
+    }
+
+    for(i = numCols - 1; i > 0; i--) {
+      j = random.nextInt(i + 1);
+
+      tmp = newXs[i];
+      newXs[i] = newXs[j];
+      newXs[j] = tmp;
+
+      tmp = newYs[i];
+      newYs[i] = newYs[j];
+      newYs[j] = tmp;
+    }
+
+    return numCols;
+  }
+
+  /**
+   * Adds every pair of a bee and a detection within the gate.
+   * @param xs the x coordinates of the bees
+   * @param ys the y coordinates of the bees
+   * @param newXs the x coordinates of the detections
+   * @param newYs the y coordinates of the detections
+   * @param numCols the number of detections
+   * @param pairs the candidate pairs to fill
+   */
+  private static void gatePairs(
+    float[] xs,
+    float[] ys,
+    float[] newXs,
+    float[] newYs,
+    int numCols,
+    CandidatePairs pairs
+  ) {
+    float dist;
+
+    pairs.clear();
+
+    for(int i = 0; i < xs.length; i++) {
+      for(int j = 0; j < numCols; j++) {
+        dist = BeeTracker.dist(xs[i], ys[i], newXs[j], newYs[j]);
+
+        if(dist < gate) {
+          pairs.add(i, j, dist);
+        }
+      }
+    }
+  }
+
+  /**
+   * Finds the minimum total cost of all valid assignments by exhaustive
+   *   search.
+   * @param numRows the number of rows
+   * @param numCols the number of columns
+   * @param pairs the candidate pairs
+   * @param unassignedCost the cost of leaving a row unassigned
+   * @return the minimum total cost
+   */
+  private static float bruteForce(
+    int numRows,
+    int numCols,
+    CandidatePairs pairs,
+    float unassignedCost
+  ) {
+    float[][] costs = new float[numRows][numCols];
+
+    for(float[] row : costs) {
+      Arrays.fill(row, Float.NaN);
+    }
+    for(int k = 0; k < pairs.size(); k++) {
+      costs[pairs.getRow(k)][pairs.getCol(k)] = pairs.getCost(k);
+    }
+
+    return bruteForce(costs, 0, new boolean[numCols], unassignedCost);
+  }
+
+  /**
+   * Finds the minimum total cost of assigning the remaining rows.
+   * @param costs the cost matrix, with NaN for pairs that are not candidates
+   * @param row the first remaining row
+   * @param isColUsed the columns used by the previous rows
+   * @param unassignedCost the cost of leaving a row unassigned
+   * @return the minimum total cost of the remaining rows
+   */
+  private static float bruteForce(
+    float[][] costs,
+    int row,
+    boolean[] isColUsed,
+    float unassignedCost
+  ) {
+    if(row == costs.length) {
+      return 0f;
+    }
+
+    float result = unassignedCost +
+      bruteForce(costs, row + 1, isColUsed, unassignedCost);
+
+    for(int col = 0; col < isColUsed.length; col++) {
+      if(!isColUsed[col] && !Float.isNaN(costs[row][col])) {
+        isColUsed[col] = true;
+        result = Math.min(result, costs[row][col] +
+          bruteForce(costs, row + 1, isColUsed, unassignedCost));
+        isColUsed[col] = false;
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * @param assignment an array mapping each row to a column, or to -1
+   * @param numCols the number of columns
+   * @param pairs the candidate pairs
+   * @param unassignedCost the cost of leaving a row unassigned
+   * @return the total cost of the assignment, or NaN if a column is used
+   *   twice or a pair is not a candidate
+   */
+  private static float getTotalCost(
+    int[] assignment,
+    int numCols,
+    CandidatePairs pairs,
+    float unassignedCost
+  ) {
+    boolean[] isColUsed = new boolean[numCols];
+    float result = 0f, cost;
+    int row, col, k;
+
+    for(row = 0; row < assignment.length; row++) {
+      col = assignment[row];
+
+      if(col < 0) {
+        result += unassignedCost;
+      } else {
+        if(col >= numCols || isColUsed[col]) {
+          return Float.NaN;
+        }
+        isColUsed[col] = true;
+
+        cost = Float.NaN;
+        for(k = 0; k < pairs.size(); k++) {
+          if(pairs.getRow(k) == row && pairs.getCol(k) == col) {
+            cost = pairs.getCost(k);
+            break;
+          }
+        }
+        if(Float.isNaN(cost)) {
+          return Float.NaN;
+        }
+
+        result += cost;
+      }
+    }
+
+    return result;
+  }
+}
@@ -0,0 +1,46 @@
+/*
+* BeeTracker
+* Copyright (C) 2016 Kay Choi
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package beetracker;
+
+/**
+ * @class AssignmentSolver
+ * @author Kay Choi
+ * @date 19 Oct 16
+ * @description Pairs existing trajectories with newly detected points.
+ */
+interface AssignmentSolver {
+  /**
+   * Assigns rows (trajectories) to columns (new points). Each row and each
+   *   column is used at most once, and only the candidate pairs may be
+   *   assigned.
+   * @param numRows the number of rows
+   * @param numCols the number of columns
+   * @param pairs the candidate pairs and their costs
+   * @param unassignedCost the cost of leaving a row unassigned; should
+   *   exceed the cost of every candidate pair
+   * @return an array mapping each row to its assigned column, or to -1 if
+   *   the row is unassigned
+   */
+  int[] solve(
+    int numRows,
+    int numCols,
+    CandidatePairs pairs,
+    float unassignedCost
+  );
+}
@@ -38,7 +38,9 @@ import processing.core.PApplet;
 import processing.core.PGraphics;
 import processing.core.PImage;
 import processing.data.FloatList;
+import processing.data.JSONArray;
 import processing.data.JSONObject;
+import processing.data.StringList;
 import processing.video.Movie;
 
 /**
@@ -51,6 +53,13 @@ import processing.video.Movie;
 public class BeeTracker extends PApplet {
   static final int[] viewBounds = {50, 70, 749, 569};
   private static final int[] defaultThresholds = {40, 60, 255, 60, 255};
+  private static final float[] defaultBackground = {0f, .02f, .9f};
+  //beyond this, StrideBenchmark finds most exit events spurious and most
+  //  dances missed
+  private static final int maxAnalysisStride = 3;
+  private static final String[] backgroundKeys = {
+    "enabled", "rate", "staticLevel"
+  };
   private static final String months[] = {
     "Jan", "Feb", "Mar", "Apr", "May", "Jun",
     "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"
@@ -101,10 +110,13 @@ public class BeeTracker extends PApplet {
 
   static final boolean debug = false;
 
-  private HashMap<Float, HashMap<Integer, List<float[]>>> allFramePoints = null;
+  private FramePointStore framePoints = null;
   private HashMap<Integer, List<float[]>> centroids;
-  private FloatList allFrameTimes = null;
   private int timeStampIndex = -1;
+  private FloatList dirtySettings = new FloatList();
+  private FloatList retrackSettings = new FloatList();
+  private FloatList redetectRanges = new FloatList();
+  private float playedFrom = 0f;
   private boolean replayCheckForTimeOut;
 
   private String videoName = null;
@@ -112,10 +124,26 @@ public class BeeTracker extends PApplet {
   private Calendar videoDate = null;
 
   private FloatList settingsTimeStamps = null;
-  private HashMap<Float, float[]> insets, radials;
+  private HashMap<Float, float[]> insets, radials, backgrounds, regions;
   private HashMap<Float, int[]> thresholds;
   private int settingIndex = 0;
   private int[] threshold;
+  private float[] background;
+  private float[] region;
+
+  private boolean trackSeededDetection = false;
+  private int fullScanInterval = 15;
+  private int framesSinceFullScan = 0;
+  private boolean motionGating = false;
+  private float motionThreshold = 2f;
+  private int analyzedFrames = 0, skippedFrames = 0;
+  private int analysisStride = 1;
+  private float analysisRate = 0f;
+  private float lastAnalysisTime = Float.NEGATIVE_INFINITY;
+  private boolean optimalAssignment = true;
+  private float historyWindow = 0f;
+  private StringList eventSinks = new StringList();
+  private int eventPort = 0;
 
   private PGraphics viewFrame;
 
@@ -213,7 +241,7 @@ public class BeeTracker extends PApplet {
                 new File(
                   System.getProperty("user.dir") + File.separatorChar +
                   "output" + File.separatorChar + videoName +
-                  File.separatorChar + "points.json"
+                  File.separatorChar + FramePointStore.fileName
                 ).exists()
               )) {
                 //unsaved frame annotations
@@ -223,7 +251,7 @@ public class BeeTracker extends PApplet {
                     public void run() {
                       if(MessageDialogue.saveAnnotationsMessage(self) ==
                         JOptionPane.YES_OPTION) {
-                        writeFramePointsToJSON();
+                        writeFramePoints();
                       }
                       exit();
                     }
@@ -273,6 +301,7 @@ public class BeeTracker extends PApplet {
   private void loadSettings(String filePath) {
     colors = new processing.data.IntList();
     settingsTimeStamps = new FloatList();
+    loadAnalysisSettings(new JSONObject());
 
     File settings = new File(filePath);
 
@@ -314,12 +343,18 @@ public class BeeTracker extends PApplet {
         thresholds = new HashMap<>();
         radials = new HashMap<>();
         insets = new HashMap<>();
+        backgrounds = new HashMap<>();
+        regions = new HashMap<>();
 
         try {
           waggleMode = jsonSettings.getString("eventType", "exit").equals("waggle");
           uic.activateEventRadio(waggleMode);
           modeRadios(waggleMode ? 1: 0);
 
+          if(jsonSettings.hasKey("analysis")) {
+            loadAnalysisSettings(jsonSettings.getJSONObject("analysis"));
+          }
+
           jsonSetting = jsonSettings.getJSONObject("time");
           settingIter = jsonSetting.keyIterator();
           float timeStamp;
@@ -395,6 +430,47 @@ public class BeeTracker extends PApplet {
 
               uic.setThresholdValue(threshold[uic.getThresholdType()]);
             }
+
+            //set background model parameters
+            background = new float[3];
+            try {
+              setting = timeSetting.getJSONObject("background");
+
+              background[0] = setting.getBoolean(backgroundKeys[0]) ? 1f : 0f;
+              for(tmp = 1; tmp < backgroundKeys.length; tmp++) {
+                background[tmp] = setting.getFloat(backgroundKeys[tmp]);
+              }
+            } catch(Exception e6) {
+              background[0] = defaultBackground[0];
+              background[1] = defaultBackground[1];
+              background[2] = defaultBackground[2];
+            } finally {
+              backgrounds.put(timeStamp, background);
+            }
+
+            //initialize region of interest
+            try {
+              if(timeSetting.hasKey("roi")) {
+                setting = timeSetting.getJSONObject("roi");
+                region = new float[setting.size()];
+
+                jsonIter = setting.keyIterator();
+                while(jsonIter.hasNext()) {
+                  jsonKey = (String) jsonIter.next();
+                  tmp = Integer.parseInt(jsonKey);
+
+                  region[tmp] = setting.getFloat(jsonKey);
+                }
+              } else {
+                region = new float[0];
+              }
+            } catch(Exception e7) {
+              region = new float[0];
+
+              e7.printStackTrace(System.err);
+            } finally {
+              regions.put(timeStamp, region);
+            }
           }
         } catch(RuntimeException e5) {
           settingsErrors[2] = true;
@@ -436,11 +512,70 @@ public class BeeTracker extends PApplet {
       insetBox[0] = insetBox[1] = 0f;
       insetBox[2] = insetBox[3] = 1f;
       insets.put(0f, insetBox);
+
+      backgrounds = new HashMap<>();
+      background = new float[3];
+      background[0] = defaultBackground[0];
+      background[1] = defaultBackground[1];
+      background[2] = defaultBackground[2];
+      backgrounds.put(0f, background);
+
+      regions = new HashMap<>();
+      region = new float[0];
+      regions.put(0f, region);
     }
 
     System.out.append("done\n").flush();
   }
 
+  /**
+   * Reads the detection and tracking options from a settings file. Options
+   *   missing from the file are reset to their defaults, so no options carry
+   *   over from a previous video.
+   * @param setting the JSONObject containing the options
+   */
+  private void loadAnalysisSettings(JSONObject setting) {
+    trackSeededDetection = setting.getBoolean("trackSeededDetection", false);
+    fullScanInterval = max(1, setting.getInt("fullScanInterval", 15));
+    motionGating = setting.getBoolean("motionGating", false);
+    motionThreshold = setting.getFloat("motionThreshold", 2f);
+    analysisStride = max(1, setting.getInt("analysisStride", 1));
+    analysisRate = setting.getFloat("analysisRate", 0f);
+    optimalAssignment = !setting.getString("assignment", "optimal")
+      .equals("greedy");
+    historyWindow = setting.getFloat("historyWindow", 0f);
+
+    eventSinks = new StringList();
+    if(setting.hasKey("eventSinks")) {
+      JSONArray sinkNames = setting.getJSONArray("eventSinks");
+      for(int i = 0; i < sinkNames.size(); i++) {
+        eventSinks.append(sinkNames.getString(i));
+      }
+    }
+    eventPort = setting.getInt("eventPort", 0);
+  }
+
+  /**
+   * Writes the detection and tracking options to a settings file.
+   * @return a JSONObject containing the options
+   */
+  private JSONObject saveAnalysisSettings() {
+    JSONObject setting = new JSONObject();
+
+    setting.setBoolean("trackSeededDetection", trackSeededDetection);
+    setting.setInt("fullScanInterval", fullScanInterval);
+    setting.setBoolean("motionGating", motionGating);
+    setting.setFloat("motionThreshold", motionThreshold);
+    setting.setInt("analysisStride", analysisStride);
+    setting.setFloat("analysisRate", analysisRate);
+    setting.setString("assignment", optimalAssignment ? "optimal" : "greedy");
+    setting.setFloat("historyWindow", historyWindow);
+    setting.setJSONArray("eventSinks", new JSONArray(eventSinks));
+    setting.setInt("eventPort", eventPort);
+
+    return setting;
+  }
+
   /**
    * Overrides from PApplet.
    */
@@ -495,14 +630,7 @@ public class BeeTracker extends PApplet {
 
         PImage insetFrame = copyInsetFrame(curFrame);
 
-        float[] exitAxes = new float[2];
-        if(pip) {
-          exitAxes[0] = exitRadial[2]*frameDims[0]/(insetBox[2]-insetBox[0]);
-          exitAxes[1] = exitRadial[3]*frameDims[1]/(insetBox[3]-insetBox[1]);
-        } else {
-          exitAxes[0] = exitRadial[2]*movieDims[0];
-          exitAxes[1] = exitRadial[3]*movieDims[1];
-        }
+        float[] exitAxes = getExitAxes();
 
         if(insetFrame != null) {
           float timeStamp;
@@ -518,18 +646,34 @@ public class BeeTracker extends PApplet {
 
               exitRadial = radials.get(timeStamp);
               insetBox = insets.get(timeStamp);
+              background = backgrounds.get(timeStamp);
+              region = regions.get(timeStamp);
               settingIndex++;
 
               updateFrameParams();
               updateExitCenter();
+              bdu.setBackground(background);
+              bdu.setRegion(region);
+            }
+          }
+
+          boolean isFiltered = false;
+          boolean isAnalysisFrame = isAnalysisFrame();
+          if(isPlaying) {
+            if(record || replay) {
+              pruneRedetectRanges(time);
+            } else {
+              //frames played without being stored were not analyzed again
+              playedFrom = time;
             }
           }
+          boolean isRedetectFrame = replay && isRedetectFrame(time);
 
-          if(replay) {
+          if(replay && !isRedetectFrame) {
             if(timeStampIndex >= 0 &&
-              timeStampIndex < allFrameTimes.size())
+              timeStampIndex < framePoints.size())
             {
-              timeStamp = allFrameTimes.get(timeStampIndex);
+              timeStamp = framePoints.getTime(timeStampIndex);
 
               if(debug) {
                 println("frame time: " + timeStamp +
@@ -539,7 +683,8 @@ public class BeeTracker extends PApplet {
               if(time > timeStamp) {
                 replayCheckForTimeOut = true;
 
-                centroids = allFramePoints.get(timeStamp);
+                centroids = framePoints.getPoints(timeStampIndex, colors);
+                tu.setAnalysisStride(framePoints.getStride(timeStampIndex));
 
                 timeStampIndex++;
               }
@@ -549,7 +694,7 @@ public class BeeTracker extends PApplet {
             if(
               replayCheckForTimeOut &&
               timeStampIndex > 0 &&
-              time - allFrameTimes.get(timeStampIndex-1) > 1f
+              time - framePoints.getTime(timeStampIndex-1) > 1f
             ) {
               replayCheckForTimeOut = false;
 
@@ -559,30 +704,39 @@ public class BeeTracker extends PApplet {
                 centroids.put(color, new ArrayList<float[]>(1));
               }
             }
+          } else if(!isAnalysisFrame) {
+            //keep centroids from the last analyzed frame for display
+          } else if(isIdleFrame(insetFrame)) {
+            bdu.clearBlobs();
+
+            centroids = new HashMap<>();
+            for(int color : colors) {
+              centroids.put(color, new ArrayList<float[]>(1));
+            }
           } else {
             bdu.filterImg(insetFrame, colors, threshold);
+            bdu.setBackgroundUpdate(isPlaying);
 
             //BlobDetection expects certain image size
             insetFrame.resize(bdu.getImageWidth(), bdu.getImageHeight());
 
+            bdu.setSearchWindows(getSearchWindows(time));
+
             centroids = bdu.getCentroids(insetFrame, colors);
-          }
 
-          if(isPlaying) {
-            if(record) {
-              boolean frameIsEmpty = true;
+            isFiltered = true;
+          }
 
-              for(int color : colors) {
-                if(!centroids.get(color).isEmpty()) {
-                  frameIsEmpty = false;
-                  break;
-                }
-              }
+          if(isPlaying && isAnalysisFrame) {
+            //empty frames are stored too, so that tracking them again
+            //times out the same trajectories
+            if(record || isRedetectFrame) {
+              storeFramePoints(time, getRecordedStride(), centroids);
+            }
 
-              if(!frameIsEmpty && !allFrameTimes.hasValue(time)) {
-                allFrameTimes.append(time);
-                allFramePoints.put(time, centroids);
-              }
+            //stored frames set their own stride when they are replayed
+            if(!replay || isRedetectFrame) {
+              tu.setAnalysisStride(getRecordedStride());
             }
 
             if(record || replay) {
@@ -632,18 +786,20 @@ public class BeeTracker extends PApplet {
 
           if(!replay) {
             //highlight filtered pixels
-            viewFrame.blend(
-              insetFrame,
-              0,
-              0,
-              insetFrame.width,
-              insetFrame.height,
-              insetOffset[0],
-              insetOffset[1],
-              frameDims[0],
-              frameDims[1],
-              ADD
-            );
+            if(isFiltered) {
+              viewFrame.blend(
+                insetFrame,
+                0,
+                0,
+                insetFrame.width,
+                insetFrame.height,
+                insetOffset[0],
+                insetOffset[1],
+                frameDims[0],
+                frameDims[1],
+                ADD
+              );
+            }
 
             //draw detected blobs
             bdu.drawBlobs(viewFrame, viewBounds,
@@ -674,7 +830,7 @@ public class BeeTracker extends PApplet {
           }
 
           //draw recorded paths
-          tu.drawPaths(viewFrame, frameDims, frameOffset);
+          tu.drawPaths(viewFrame, frameDims, frameOffset, !isPlaying);
         }
 
         //list recent events
@@ -756,6 +912,18 @@ public class BeeTracker extends PApplet {
           }
         }
 
+        //region of interest
+        if(region.length >= 6) {
+          beginShape();
+          for(int i = 0; i < region.length; i += 2) {
+            vertex(
+              region[i]*frameDims[0] + frameOffset[0],
+              region[i+1]*frameDims[1] + frameOffset[1]
+            );
+          }
+          endShape(CLOSE);
+        }
+
         if(isDrag && !selectExit) {
           //draw selection box diagonals
           line(
@@ -802,16 +970,21 @@ public class BeeTracker extends PApplet {
           ((time >= duration) || (!imgSequenceMode &&
           duration - time <= 1f/movie.frameRate))
         ) {
-          if(record && !waggleMode) {
-            tu.eventCheckAll(
-              frameDims, frameOffset,
-              exitCenter, exitAxes,
-              time
-            );
+          if((record || replay) && waggleMode) {
+            tu.finishRecognition(frameDims);
           }
 
           isPlaying = false;
 
+          if((record || replay) && waggleMode) {
+            System.out.append("waggle pre-filter: ")
+              .append(Long.toString(tu.getPrefilterPassCount()))
+              .append(" passed, ")
+              .append(Long.toString(tu.getPrefilterRejectCount()))
+              .append(" rejected\n")
+              .flush();
+          }
+
           StringBuilder msg = new StringBuilder("End of video reached.\n");
           msg.append("video date: ")
             .append(months[videoDate.get(Calendar.MONTH)])
@@ -827,40 +1000,32 @@ public class BeeTracker extends PApplet {
               videoDate.get(Calendar.SECOND)
             ));
 
-          HashMap<Float, String> formattedTime = new HashMap<>();
-          HashMap<Float, String> summary = tu.getSummary();
-          FloatList timeStamps = new FloatList(summary.size());
+          if(record && motionGating) {
+            msg.append(String.format(
+              "frames skipped (no motion): %d of %d\n\n",
+              skippedFrames,
+              skippedFrames + analyzedFrames
+            ));
+          }
+
+          EventLog summary = tu.getEvents();
 
-          if(allFramePoints.isEmpty()) {
+          if(framePoints.getPointCount() == 0) {
             msg.append("No points saved!")
               .append(" Enable recording to generate events.\n");
           } else {
             msg.append("Summary of events: \n");
 
-            for(Float timeStamp : summary.keySet()) {
-              timeStamps.append(timeStamp);
+            for(int i = 0; i < summary.size(); i++) {
+              msg.append(formatEventTime(summary.getTime(i)))
+                .append(" - bee #")
+                .append(summary.describe(i).replaceAll(",", ", "))
+                .append('\n');
             }
-            timeStamps.sort();
 
-            StringBuilder timeStringBuilder;
-            int tmp;
-            for(float timeStamp : timeStamps) {
-              tmp = (int)(timeStamp*100f);
-
-              timeStringBuilder = new StringBuilder();
-              timeStringBuilder.append(String.format(
-                "%02d:%02d:%02d.%02d",
-                tmp/360000,
-                (tmp/6000)%60,
-                (tmp/100)%60,
-                tmp%100
-              ));
-
-              formattedTime.put(timeStamp, timeStringBuilder.toString());
-
-              msg.append(timeStringBuilder.toString())
-                .append(" - bee #")
-                .append(summary.get(timeStamp).replaceAll(",", ", "))
+            if(waggleMode) {
+              msg.append("Waggle runs decoded: ")
+                .append(tu.getWaggleRuns().size())
                 .append('\n');
             }
           }
@@ -869,7 +1034,15 @@ public class BeeTracker extends PApplet {
             println('\n' + msg.toString());
           }
 
-          String path = saveSummaryResults(timeStamps, formattedTime, summary);
+          String path = saveSummaryResults(summary);
+
+          if(waggleMode && path != null) {
+            saveWaggleRuns(tu.getWaggleRuns(), path);
+          }
+
+          if(path != null) {
+            tu.savePaths(path.substring(0, path.length() - 4) + "-paths.csv");
+          }
 
           PGraphics events;
           if((record || replay) && path != null) {
@@ -936,6 +1109,111 @@ public class BeeTracker extends PApplet {
     sem.release();
   }
 
+  /**
+   * Determines whether the current frame should be analyzed. While
+   *   recording, only every Nth frame is analyzed, where N is either the
+   *   configured analysis stride or the ratio of the video frame rate to the
+   *   configured analysis rate.
+   * @return true if the current frame should be analyzed
+   */
+  private boolean isAnalysisFrame() {
+    boolean result = true;
+
+    if(isPlaying && record && !replay && getAnalysisStride() > 1) {
+      result = time < lastAnalysisTime ||
+        time - lastAnalysisTime > (getAnalysisStride() - .5f)/fps;
+
+      if(result) {
+        lastAnalysisTime = time;
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * @return the number of video frames per analyzed frame for the frames
+   *   currently being detected; frames detected again during replay are
+   *   analyzed at every frame
+   */
+  private int getRecordedStride() {
+    return replay ? 1 : getAnalysisStride();
+  }
+
+  /**
+   * @return the number of video frames per analyzed frame, limited to the
+   *   largest stride that still tracks events reliably
+   */
+  private int getAnalysisStride() {
+    return min(getRequestedStride(), maxAnalysisStride);
+  }
+
+  /**
+   * @return the number of video frames per analyzed frame in the analysis
+   *   settings
+   */
+  private int getRequestedStride() {
+    int result = analysisStride;
+
+    if(analysisRate > 0f && fps > 0) {
+      result = max(1, round(fps/analysisRate));
+    }
+
+    return result;
+  }
+
+  /**
+   * Determines whether blob detection can be skipped for the current frame.
+   *   A frame is idle if nothing moved since the previous frame and there
+   *   are no trajectories to continue.
+   * @param insetFrame the unfiltered inset frame
+   * @return true if the frame should not be processed
+   */
+  private boolean isIdleFrame(PImage insetFrame) {
+    boolean result = false;
+
+    if(isPlaying && record) {
+      if(motionGating) {
+        result = !bdu.isMotionDetected(insetFrame, motionThreshold) &&
+          !tu.hasActiveTracks();
+      }
+
+      if(result) {
+        skippedFrames++;
+      } else {
+        analyzedFrames++;
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Determines the regions of the inset frame to search for blobs. The
+   *   entire inset frame is searched periodically, and whenever there are no
+   *   trajectories to seed the search.
+   * @param time the time stamp of the frame to search, in seconds
+   * @return a List of normalized {xMin, yMin, xMax, yMax} bounds, or null if
+   *   the entire inset frame should be searched
+   */
+  private List<float[]> getSearchWindows(float time) {
+    List<float[]> result = null;
+
+    if(trackSeededDetection && isPlaying && record &&
+      framesSinceFullScan < fullScanInterval)
+    {
+      result = tu.getSearchWindows(movieDims, time);
+    }
+
+    if(result == null) {
+      framesSinceFullScan = 0;
+    } else {
+      framesSinceFullScan++;
+    }
+
+    return result;
+  }
+
   /**
    * Retrieves the next frame for analysis.
    * @return the new frame as a PImage
@@ -1146,26 +1424,35 @@ public class BeeTracker extends PApplet {
     bdu.setExit(exitXY, exitAxes);
   }
 
+  /**
+   * Formats an event time stamp.
+   * @param timeStamp the time stamp in seconds
+   * @return the time stamp in the format "hh:mm:ss.ss"
+   */
+  private static String formatEventTime(float timeStamp) {
+    int tmp = (int)(timeStamp*100f);
+
+    return String.format(
+      "%02d:%02d:%02d.%02d",
+      tmp/360000,
+      (tmp/6000)%60,
+      (tmp/100)%60,
+      tmp%100
+    );
+  }
+
   /**
    * Saves the statistics of the current video to file.
-   * @param timeStamps a sorted FloatList of time stamps
-   * @param formattedTime a HashMap mapping float time stamps to formatted
-   *   time stamp strings
-   * @param summary a HashMap mapping float time stamps to string event
-   *   descriptions
+   * @param summary an EventLog containing all events in time order
    * @return the relative path to the new file in the format
    *   "<video name>/dd.mmm.yyyy-hhmm.csv"
    *   OR
    *   null if no points were recorded
    */
-  private String saveSummaryResults(
-    FloatList timeStamps,
-    HashMap<Float, String> formattedTime,
-    HashMap<Float, String> summary
-  ) {
+  private String saveSummaryResults(EventLog summary) {
     String fileName = null;
 
-    if(!allFramePoints.isEmpty()) {
+    if(framePoints.getPointCount() > 0) {
       Calendar date = Calendar.getInstance();
 
       File dir = new File(System.getProperty("user.dir") +
@@ -1205,14 +1492,14 @@ public class BeeTracker extends PApplet {
           ));
 
         writer.append("\"video date\",\"seek time\",\"bee ID\",color,type\n").flush();
-        for(float timeStamp : timeStamps) {
+        for(int i = 0; i < summary.size(); i++) {
           writer.append(dateString.toString())
-            .append(formattedTime.get(timeStamp))
+            .append(formatEventTime(summary.getTime(i)))
             .append(',')
-            .append(summary.get(timeStamp))
-            .append('\n')
-            .flush();
+            .append(summary.describe(i))
+            .append('\n');
         }
+        writer.flush();
       } catch (IOException e) {
         e.printStackTrace(System.err);
       } finally {
@@ -1229,6 +1516,40 @@ public class BeeTracker extends PApplet {
     return fileName;
   }
 
+  /**
+   * Saves the decoded waggle runs of the current video to file.
+   * @param runs the waggle runs
+   * @param summaryPath the path to the summary results file, which the
+   *   file name is based on
+   */
+  private void saveWaggleRuns(List<WaggleRun> runs, String summaryPath) {
+    String fileName = summaryPath.substring(0, summaryPath.length() - 4) +
+      "-waggles.csv";
+
+    java.io.BufferedWriter writer = null;
+    try {
+      writer = new java.io.BufferedWriter(new java.io.OutputStreamWriter(
+        new java.io.FileOutputStream(fileName), "UTF-8")
+      );
+
+      writer.append(WaggleRun.csvHeader).append('\n');
+      for(WaggleRun run : runs) {
+        writer.append(run.toCSV()).append('\n');
+      }
+      writer.flush();
+    } catch (IOException e) {
+      e.printStackTrace(System.err);
+    } finally {
+      if(writer != null) {
+        try {
+          writer.close();
+        } catch (IOException e) {
+          e.printStackTrace(System.err);
+        }
+      }
+    }
+  }
+
   /**
    * Copies the inset frame for image processing and blob detection.
    * @param src the source frame to process
@@ -1320,6 +1641,17 @@ public class BeeTracker extends PApplet {
 
           tu.setColors(colors);
 
+          if(getRequestedStride() > maxAnalysisStride) {
+            System.err.println("analysis stride lowered from " +
+              getRequestedStride() + " to " + maxAnalysisStride +
+              " frames, as events are lost at larger strides");
+          }
+          tu.setAnalysisStride(getAnalysisStride());
+          tu.setOptimalAssignment(optimalAssignment);
+          tu.setHistoryWindow(historyWindow);
+
+          retrackDirtySettings();
+
           if(!imgSequenceMode) {
             movie.play();
           }
@@ -1441,7 +1773,11 @@ public class BeeTracker extends PApplet {
     default:
     }
 
-    threshold[type] = (int)value;
+    if(threshold[type] != (int)value) {
+      threshold[type] = (int)value;
+
+      markSettingsDirty(true);
+    }
   }
 
   /**
@@ -1524,37 +1860,21 @@ public class BeeTracker extends PApplet {
     }
 
     uic.setSeekTime(value);
+    playedFrom = value;
 
     if(debug) {
       println("seek to: " + value + 's');
     }
 
+    if(framePoints != null) {
+      restoreTracking(value);
+    }
+
     updateSettings(value);
 
-    //update playback mode timestamp
+    //update playback mode timestamp to the matching or next frame
     if(replay) {
-      float tmpTime;
-      int i = 0, start = 0, stop = allFrameTimes.size() - 1;
-
-      while(start <= stop) {
-        i = (stop+start)/2;
-        tmpTime = allFrameTimes.get(i);
-
-        if(tmpTime - value > 0.000001f) {
-          stop = i - 1;
-        } else if(value - tmpTime > 0.000001f) {
-          start = i + 1;
-        } else {
-          break;
-        }
-      }
-
-      //if no match found, get next largest frame time
-      if(start > stop && value - allFrameTimes.get(i) > 0.000001f) {
-        i++;
-      }
-
-      timeStampIndex = i;
+      timeStampIndex = framePoints.upperBound(value - 0.000001f);
     }
   }
 
@@ -1621,9 +1941,16 @@ public class BeeTracker extends PApplet {
     movieDims = null;
     videoName = null;
 
-    allFrameTimes = null;
-    allFramePoints = null;
+    framePoints = null;
     timeStampIndex = -1;
+    dirtySettings.clear();
+    retrackSettings.clear();
+    redetectRanges.clear();
+    playedFrom = 0f;
+
+    analyzedFrames = skippedFrames = 0;
+    lastAnalysisTime = Float.NEGATIVE_INFINITY;
+    loadAnalysisSettings(new JSONObject());
 
     settingIndex = 0;
     settingsTimeStamps = null;
@@ -1729,6 +2056,8 @@ public class BeeTracker extends PApplet {
 
     settings.setString("eventType", waggleMode ? "waggle" : "exit");
 
+    settings.setJSONObject("analysis", saveAnalysisSettings());
+
     for(float timeStamp : settingsTimeStamps) {
       set = new JSONObject();
 
@@ -1753,6 +2082,23 @@ public class BeeTracker extends PApplet {
       }
       set.setJSONObject("thresholds", setting);
 
+      setting = new JSONObject();
+      background = backgrounds.get(timeStamp);
+      setting.setBoolean(backgroundKeys[0], background[0] != 0f);
+      for(i = 1; i < background.length; i++) {
+        setting.setFloat(backgroundKeys[i], background[i]);
+      }
+      set.setJSONObject("background", setting);
+
+      region = regions.get(timeStamp);
+      if(region.length > 0) {
+        setting = new JSONObject();
+        for(i = 0; i < region.length; i++) {
+          setting.setFloat(Integer.toString(i), region[i]);
+        }
+        set.setJSONObject("roi", setting);
+      }
+
       sets.setJSONObject(String.format("%.8f",timeStamp), set);
     }
 
@@ -1957,10 +2303,15 @@ public class BeeTracker extends PApplet {
 
           updateFrameParams();
         }
+
+        bdu.setBackground(background);
       }
 
       isDrag = false;
 
+      //the exit only affects tracking, so the stored centroids are kept
+      markSettingsDirty(!selectExit);
+
       if(debug) {
         println(
           "inset: " +
@@ -2028,92 +2379,53 @@ public class BeeTracker extends PApplet {
 
   /**
    * Reads previously generated blob information associated with a video
-   *   from a file.
+   *   from a file. Frame annotations in the legacy JSON format are converted
+   *   and saved in the binary format.
    * @return true if successful
    */
-  private boolean readFramePointsFromJSON() {
+  private boolean readFramePoints() {
     boolean result = false;
     List<float[]> tmpList = new ArrayList<>(1);
 
-    String path = System.getProperty("user.dir") + File.separatorChar +
-      "output" + File.separatorChar + videoName + File.separatorChar +
-      "points.json";
+    File dir = new File(System.getProperty("user.dir") +
+      File.separatorChar + "output" + File.separatorChar + videoName);
+    File file = new File(dir, FramePointStore.fileName);
+    File legacyFile = new File(dir, FramePointStore.legacyFileName);
 
     if(debug) {
-      println("attempting to read points from \"" + path + "\"...");
+      println("attempting to read points from \"" + file.getPath() + "\"...");
     }
 
-    if((new File(path)).exists()) {
-      try {
-        JSONObject json = loadJSONObject(path);
-
-        allFramePoints = new HashMap<>(json.size());
-        allFrameTimes = new FloatList(json.size());
-
-        HashMap<Integer, List<float[]>> colorMap;
-        Iterator<?> jsonIter = json.keyIterator();
-        Iterator<?> colorsIter, blobsIter;
-        JSONObject jsonColors, jsonBlobs, jsonCoords;
-        String keyString, tmpString;
-        List<float[]> pointList;
-        int color;
-        float[] point;
-
-        float timeStamp;
-        while(jsonIter.hasNext()) {
-          keyString = (String)jsonIter.next();
-          timeStamp = Float.parseFloat(keyString);
-
-          jsonColors = json.getJSONObject(keyString);
-
-          colorMap = new HashMap<>();
-
-          colorsIter = jsonColors.keyIterator();
-          while(colorsIter.hasNext()) {
-            tmpString = (String)colorsIter.next();
-            color = (int)Long.parseLong(tmpString, 16);
-
-            jsonBlobs = jsonColors.getJSONObject(tmpString);
-
-            pointList = new ArrayList<>(jsonBlobs.size());
-
-            blobsIter = jsonBlobs.keyIterator();
-            while(blobsIter.hasNext()) {
-              jsonCoords = jsonBlobs.getJSONObject((String) blobsIter.next());
-
-              point = new float[2];
-              point[0] = jsonCoords.getFloat("x");
-              point[1] = jsonCoords.getFloat("y");
-
-              pointList.add(point);
-            }
-
-            colorMap.put(color, pointList);
-          }
-
-          for(int tmp : colors) {
-            colorMap.putIfAbsent(tmp, tmpList);
-          }
-
-          allFramePoints.put(timeStamp, colorMap);
-          allFrameTimes.append(timeStamp);
-        }
+    try {
+      if(file.exists()) {
+        framePoints = FramePointStore.read(file);
 
-        allFrameTimes.sort();
+        result = true;
+      } else if(legacyFile.exists()) {
+        framePoints = FramePointStore.fromJSON(
+          loadJSONObject(legacyFile.getAbsolutePath())
+        );
+        framePoints.write(file);
 
         result = true;
 
-        System.out.append("frame annotations loaded\n").flush();
-      } catch(RuntimeException ex) {
-        ex.printStackTrace(System.err);
+        System.out.append("frame annotations converted to ")
+          .append(FramePointStore.fileName)
+          .append('\n')
+          .flush();
+      }
 
-        result = false;
+      if(result) {
+        System.out.append("frame annotations loaded\n").flush();
       }
+    } catch(IOException | RuntimeException ex) {
+      ex.printStackTrace(System.err);
+
+      result = false;
     }
 
     if(!result) {
-      allFramePoints = new HashMap<>();
-      allFrameTimes = new FloatList();
+      framePoints = new FramePointStore();
 
       if(debug) {
         println("failure");
@@ -2135,53 +2447,16 @@ public class BeeTracker extends PApplet {
   /**
    * Writes the generated blob information to a file.
    */
-  void writeFramePointsToJSON() {
-    JSONObject json = new JSONObject();
-    JSONObject jsonCoords, jsonBlobs, jsonColors;
-
-    HashMap<Integer, List<float[]>> colorMap;
-    List<float[]> points;
-    int i;
-    float[] point;
-
-    allFrameTimes.sort();
-
-    for(Float timeStamp : allFrameTimes) {
-      colorMap = allFramePoints.get(timeStamp);
-
-      jsonColors = new JSONObject();
-
-      for(int color : colors) {
-        points = colorMap.get(color);
-
-        jsonBlobs = new JSONObject();
-
-        for(i = 0; i < points.size(); i++) {
-          point = points.get(i);
-
-          jsonCoords = new JSONObject();
-          jsonCoords.setFloat("x", point[0]);
-          jsonCoords.setFloat("y", point[1]);
-
-          jsonBlobs.setJSONObject(Integer.toString(i), jsonCoords);
-        }
-
-        if(points.size() > 0) {
-          jsonColors.setJSONObject(String.format("%06x", color), jsonBlobs);
-        }
-      }
-
-      if(jsonColors.size() > 0) {
-        json.setJSONObject(String.format("%.7f", timeStamp), jsonColors);
-      }
-    }
-
+  void writeFramePoints() {
     File dir = new File(System.getProperty("user.dir") +
       File.separatorChar + "output" + File.separatorChar + videoName);
     dir.mkdir();
 
-    saveJSONObject(json, dir.getAbsolutePath() + File.separatorChar +
-      "points.json");
+    try {
+      framePoints.write(new File(dir, FramePointStore.fileName));
+    } catch(IOException ex) {
+      ex.printStackTrace(System.err);
+    }
   }
 
   /**
@@ -2247,15 +2522,122 @@ public class BeeTracker extends PApplet {
     }
   }
 
+  /**
+   * Subscribes the event sinks listed in the analysis settings.
+   */
+  private void openEventSinks() {
+    File dir = new File(System.getProperty("user.dir") +
+      File.separatorChar + "output" + File.separatorChar + videoName);
+
+    for(String sinkName : eventSinks) {
+      switch(sinkName) {
+        case "csv":
+          tu.subscribe(new FileEventSink(new File(dir, "events.csv"), false));
+          break;
+
+        case "ndjson":
+          tu.subscribe(new FileEventSink(new File(dir, "events.ndjson"), true));
+          break;
+
+        case "totals":
+          tu.subscribe(new EventAggregator());
+          break;
+
+        default:
+          System.err.println("unknown event sink: " + sinkName);
+      }
+    }
+
+    if(eventPort > 0) {
+      tu.subscribe(new SocketEventSink("localhost", eventPort));
+    }
+  }
+
+  /**
+   * @return the exit semi-major axes, referenced to the inset frame
+   */
+  private float[] getExitAxes() {
+    float[] result = new float[2];
+
+    if(pip) {
+      result[0] = exitRadial[2]*frameDims[0]/(insetBox[2]-insetBox[0]);
+      result[1] = exitRadial[3]*frameDims[1]/(insetBox[3]-insetBox[1]);
+    } else {
+      result[0] = exitRadial[2]*movieDims[0];
+      result[1] = exitRadial[3]*movieDims[1];
+    }
+
+    return result;
+  }
+
+  /**
+   * Brings the tracking state to a time stamp by restoring the nearest
+   *   earlier checkpoint and tracking the stored centroids from there.
+   * @param value the time stamp in seconds
+   */
+  private void restoreTracking(float value) {
+    float checkpointTime = tu.restoreCheckpoint(value);
+    float timeStamp;
+    int i, start = framePoints.upperBound(checkpointTime);
+
+    tu.setLive(false);
+
+    for(i = start; i < framePoints.size(); i++) {
+      timeStamp = framePoints.getTime(i);
+
+      if(timeStamp >= value) {
+        break;
+      }
+
+      if(
+        i == start ||
+        (settingIndex < settingsTimeStamps.size() - 1 &&
+        timeStamp - settingsTimeStamps.get(settingIndex + 1) > 0.000001f)
+      ) {
+        updateSettings(timeStamp);
+      }
+
+      tu.setAnalysisStride(framePoints.getStride(i));
+      tu.trackCentroids(
+        framePoints.getPoints(i, colors),
+        frameDims, frameOffset,
+        exitCenter, getExitAxes(),
+        movieDims, movieOffset,
+        timeStamp,
+        duration
+      );
+    }
+
+    tu.setLive(true);
+
+    if(debug) {
+      println(String.format(
+        "tracked %d stored frame(s) from %.2fs",
+        i - start,
+        checkpointTime
+      ));
+    }
+
+    //discard centroids from the previous position
+    replayCheckForTimeOut = false;
+    centroids = new HashMap<>();
+    for(int color : colors) {
+      centroids.put(color, new ArrayList<float[]>(1));
+    }
+  }
+
   /**
    * Performs post-load operations.
    */
   private void postLoad() {
     isPlaying = false;
 
+    tu.init();
+    openEventSinks();
+
     System.out.append("reading frame annotations... ").flush();
 
-    replay = readFramePointsFromJSON();
+    replay = readFramePoints();
     replayCheckForTimeOut = false;
     uic.setRecordVisibility(!replay);
     uic.setRecordState(replay);
@@ -2303,7 +2685,7 @@ public class BeeTracker extends PApplet {
       println("done");
     }
 
-    if(!allFramePoints.isEmpty()) {
+    if(!framePoints.isEmpty()) {
       replay = true;
       uic.setRecordVisibility(!replay);
       uic.setRecordState(replay);
@@ -2333,6 +2715,10 @@ public class BeeTracker extends PApplet {
       float[] newExit = new float[exitRadial.length],
         newBox = new float[exitRadial.length];
       int[] newThreshold = new int[threshold.length];
+      float[] newBackground = java.util.Arrays.copyOf(
+        background,
+        background.length
+      );
       short i;
 
       for(i = 0; i < exitRadial.length; i++) {
@@ -2348,6 +2734,8 @@ public class BeeTracker extends PApplet {
       insets.put(time, newBox);
       radials.put(time, newExit);
       thresholds.put(time, newThreshold);
+      backgrounds.put(time, newBackground);
+      regions.put(time, java.util.Arrays.copyOf(region, region.length));
 
       settingsTimeStamps.append(time);
       settingsTimeStamps.sort();
@@ -2394,9 +2782,13 @@ public class BeeTracker extends PApplet {
 
     exitRadial = radials.get(settingsStamp);
     insetBox = insets.get(settingsStamp);
+    background = backgrounds.get(settingsStamp);
+    region = regions.get(settingsStamp);
 
     updateFrameParams();
     updateExitCenter();
+    bdu.setBackground(background);
+    bdu.setRegion(region);
   }
 
   /**
@@ -2419,18 +2811,151 @@ public class BeeTracker extends PApplet {
         radials.replace(timeStamp, radials.remove(tmp));
         insets.replace(timeStamp, insets.remove(tmp));
         thresholds.replace(timeStamp, thresholds.remove(tmp));
+        backgrounds.replace(timeStamp, backgrounds.remove(tmp));
+        regions.replace(timeStamp, regions.remove(tmp));
       } else {  //remove current settings
         timeStamp = settingsTimeStamps.remove(index);
 
         radials.remove(timeStamp);
         insets.remove(timeStamp);
         thresholds.remove(timeStamp);
+        backgrounds.remove(timeStamp);
+        regions.remove(timeStamp);
       }
 
       updateSettings(time);
+
+      //the preceding settings now cover the removed range
+      markSettingsDirty(true);
+    }
+  }
+
+  /**
+   * Marks the current settings keyframe as changed, so that the frames it
+   *   covers are tracked again on the next playback.
+   * @param isDetectionChanged true if the change affects blob detection, so
+   *   the frames must also be analyzed again
+   */
+  private void markSettingsDirty(boolean isDetectionChanged) {
+    if(settingsTimeStamps != null && framePoints != null) {
+      float stamp = settingsTimeStamps.get(settingIndex);
+      FloatList list = isDetectionChanged ? dirtySettings : retrackSettings;
+
+      if(!list.hasValue(stamp)) {
+        list.append(stamp);
+      }
+    }
+  }
+
+  /**
+   * Discards the stored centroids covered by changed settings keyframes and
+   *   rewinds tracking to the earliest changed keyframe. Stored centroids
+   *   before that keyframe, outside the changed keyframe ranges, and within
+   *   keyframes whose changes only affect tracking, are reused.
+   */
+  private void retrackDirtySettings() {
+    float dirtyFrom = Float.POSITIVE_INFINITY, end;
+    int index;
+
+    for(float stamp : dirtySettings) {
+      index = settingsTimeStamps.index(stamp);
+
+      if(index >= 0) {
+        end = index < settingsTimeStamps.size() - 1 ?
+          settingsTimeStamps.get(index + 1) : Float.POSITIVE_INFINITY;
+
+        framePoints.remove(stamp, end);
+        redetectRanges.append(stamp);
+        redetectRanges.append(end);
+
+        dirtyFrom = min(dirtyFrom, stamp);
+      }
+    }
+
+    for(float stamp : retrackSettings) {
+      if(settingsTimeStamps.index(stamp) >= 0) {
+        dirtyFrom = min(dirtyFrom, stamp);
+      }
+    }
+
+    dirtySettings.clear();
+    retrackSettings.clear();
+
+    if(debug && dirtyFrom < Float.POSITIVE_INFINITY) {
+      println("settings changed from " + dirtyFrom + 's');
+    }
+
+    if(dirtyFrom < time) {
+      seek(dirtyFrom);
+    }
+  }
+
+  /**
+   * Stores the centroids of a frame, keeping the frames in time order.
+   * @param timeStamp the time stamp of the frame in seconds
+   * @param stride the number of video frames per analyzed frame
+   * @param points the centroids of the frame
+   */
+  private void storeFramePoints(
+    float timeStamp,
+    int stride,
+    HashMap<Integer, List<float[]>> points
+  ) {
+    int index = framePoints.put(timeStamp, stride, points);
+
+    if(replay && index >= 0 && index <= timeStampIndex) {
+      timeStampIndex++;
     }
   }
 
+  /**
+   * Removes the parts of the ranges that have been played since the last
+   *   seek, as their frames have been analyzed again. Parts skipped over by
+   *   a seek stay queued.
+   * @param timeStamp the current time stamp in seconds
+   */
+  private void pruneRedetectRanges(float timeStamp) {
+    float start, end;
+
+    for(int i = redetectRanges.size() - 2; i >= 0; i -= 2) {
+      start = redetectRanges.get(i);
+      end = redetectRanges.get(i + 1);
+
+      if(playedFrom < end && timeStamp > start) {
+        redetectRanges.remove(i + 1);
+        redetectRanges.remove(i);
+
+        if(start < playedFrom) {
+          redetectRanges.append(start);
+          redetectRanges.append(playedFrom);
+        }
+
+        if(timeStamp < end) {
+          redetectRanges.append(timeStamp);
+          redetectRanges.append(end);
+        }
+      }
+    }
+  }
+
+  /**
+   * @param timeStamp the time stamp in seconds
+   * @return true if the frame is in a range whose settings have changed
+   *   since its centroids were stored
+   */
+  private boolean isRedetectFrame(float timeStamp) {
+    for(int i = 0; i < redetectRanges.size(); i += 2) {
+      if(
+        timeStamp >= redetectRanges.get(i) &&
+        timeStamp < redetectRanges.get(i + 1)
+      ) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
   /**
    * ControlP5 callback method.
    */
@@ -2683,7 +3208,7 @@ public class BeeTracker extends PApplet {
             new File(
               System.getProperty("user.dir") + File.separatorChar +
               "output" + File.separatorChar + videoName +
-              File.separatorChar + "points.json"
+              File.separatorChar + FramePointStore.fileName
             ).exists()
           )) {
             final BeeTracker self = this;
@@ -2694,7 +3219,7 @@ public class BeeTracker extends PApplet {
                 public void run() {
                   if(MessageDialogue.saveAnnotationsMessage(self) ==
                     JOptionPane.YES_OPTION) {
-                    writeFramePointsToJSON();
+                    writeFramePoints();
                   }
                   exit();
                 }
@@ -41,7 +41,14 @@ import processing.opengl.PShader;
 class BlobDetectionUtils {
   private final BeeTracker parent;
   private static final float[] filterRadius = {4f, 6f};
+  private static final float borderWidth = .05f;
+  private static final int motionStep = 8;
+  private static final float maxWindowCoverage = .5f;
+  private static final int windowStep = 16;
+  private static final int windowBlobMax = 32, windowLineMax = 2000;
+  private static final float[] frameTransform = {0f, 0f, 1f, 1f};
   private final BlobDetection bd;
+  private final int bdBlobMax, bdLineMax;
   private final PShader thresholdShader, morphoShader, alphaShader, maskShader;
   private PGraphics buf = null, exitBuf = null;
   private IntList validBlobs;
@@ -49,6 +56,22 @@ class BlobDetectionUtils {
   private int[] bufParams = null;
   private float[] exitBufParams = null;
   private boolean waggleMode = false;
+  private List<float[]> searchWindows = null;
+  private final HashMap<Integer, List<BlobDetection>> windowDetectors =
+    new HashMap<>();
+  private final HashMap<Integer, Integer> windowDetectorsUsed =
+    new HashMap<>();
+  private int[] windowPixels = new int[0];
+  private final List<Blob> blobs = new ArrayList<>();
+  private final List<float[]> blobTransforms = new ArrayList<>();
+  private float[] bgParams = null;
+  private float[] bgModel = null;
+  private int[] bgStamps = null;
+  private int bgFrame = 0;
+  private boolean bgUpdate = false;
+  private float[] motionSamples = null;
+  private float[] region = null;
+  private RegionMask regionMask = null;
 
   /**
    * Class constructor.
@@ -65,6 +88,8 @@ class BlobDetectionUtils {
     bd = new BlobDetection(width, height);
     bd.setPosDiscrimination(true);
     bd.setThreshold(.2f);
+    bdBlobMax = BlobDetection.blobMaxNumber;
+    bdLineMax = Blob.MAX_NBLINE;
 
     thresholdShader = parent.loadShader("shaders/thresholdshader.glsl");
     morphoShader = parent.loadShader("shaders/morphoshader.glsl");
@@ -133,6 +158,61 @@ class BlobDetectionUtils {
       0, 0, img.width, img.height, BeeTracker.LIGHTEST);
   }
 
+  /**
+   * Compares a downsampled copy of an unfiltered frame with the previous
+   *   frame passed to this method.
+   * @param img the unfiltered PImage
+   * @param motionThreshold the minimum mean absolute brightness difference,
+   *   on a scale of 0-255, that counts as motion
+   * @return true if the frame differs enough from the previous frame
+   */
+  boolean isMotionDetected(PImage img, float motionThreshold) {
+    int cols = (img.width + motionStep - 1)/motionStep;
+    int rows = (img.height + motionStep - 1)/motionStep;
+    int i, j, k, pixel;
+    float value, diff = 0f;
+    boolean result;
+
+    img.loadPixels();
+
+    if(motionSamples == null || motionSamples.length != cols*rows) {
+      motionSamples = new float[cols*rows];
+      result = true;
+    } else {
+      result = false;
+    }
+
+    k = 0;
+    for(j = 0; j < img.height; j += motionStep) {
+      for(i = 0; i < img.width; i += motionStep) {
+        pixel = img.pixels[j*img.width + i];
+        value = .299f*((pixel >> 16) & 0xff) + .587f*((pixel >> 8) & 0xff) +
+          .114f*(pixel & 0xff);
+
+        diff += BeeTracker.abs(value - motionSamples[k]);
+        motionSamples[k] = value;
+        k++;
+      }
+    }
+
+    if(!result) {
+      result = diff/k > motionThreshold;
+    }
+
+    if(BeeTracker.debug) {
+      System.out.println("mean frame difference: " + diff/k);
+    }
+
+    return result;
+  }
+
+  /**
+   * Discards the blobs from the previous frame.
+   */
+  void clearBlobs() {
+    validBlobs = new IntList(0);
+  }
+
   /**
    * Draws the blobs in the current frame.
    * @param buf the buffer image to draw to
@@ -149,12 +229,16 @@ class BlobDetectionUtils {
   ) {
     EdgeVertex eA,eB;
     Blob b;
+    float[] t;
 
     buf.noFill();
     buf.strokeWeight(1);
 
     for (int n : validBlobs) {
-      if ((b = bd.getBlob(n)) != null) {
+      if ((b = blobs.get(n)) != null) {
+        //edge vertices are normalized to the window the blob was found in
+        t = blobTransforms.get(n);
+
         //mark edges all blobs
         buf.stroke(0xFFFFFFFF);
         for (int m = 0; m < b.getEdgeNb(); m++) {
@@ -163,10 +247,10 @@ class BlobDetectionUtils {
 
           if (eA != null && eB != null) {
             buf.line(
-              eA.x*frameDims[0] + frameOffset[0] - bufOffset[0],
-              eA.y*frameDims[1] + frameOffset[1] - bufOffset[1],
-              eB.x*frameDims[0] + frameOffset[0] - bufOffset[0],
-              eB.y*frameDims[1] + frameOffset[1] - bufOffset[1]
+              (t[0] + t[2]*eA.x)*frameDims[0] + frameOffset[0] - bufOffset[0],
+              (t[1] + t[3]*eA.y)*frameDims[1] + frameOffset[1] - bufOffset[1],
+              (t[0] + t[2]*eB.x)*frameDims[0] + frameOffset[0] - bufOffset[0],
+              (t[1] + t[3]*eB.y)*frameDims[1] + frameOffset[1] - bufOffset[1]
             );
           }
         }
@@ -198,7 +282,14 @@ class BlobDetectionUtils {
     int i, j, k, l, index1, index2, color, pixel, hue, numBlobPixels;
 
     frame.loadPixels();
-    bd.computeBlobs(frame.pixels);
+
+    blobs.clear();
+    blobTransforms.clear();
+    bgFrame++;
+
+    if(searchWindows == null || !labelSearchWindows(frame)) {
+      labelFrame(frame);
+    }
 
     for(int tmpColor : colors) {
       result.put(tmpColor, new ArrayList<float[]>());
@@ -207,10 +298,10 @@ class BlobDetectionUtils {
     parent.colorMode(BeeTracker.HSB, 255);
 
     //index of accepted blobs
-    validBlobs = new IntList(bd.getBlobNb());
+    validBlobs = new IntList(blobs.size());
 
-    IntList unCheckedIndices = new IntList(bd.getBlobNb());
-    for(i = 0; i < bd.getBlobNb(); i++) {
+    IntList unCheckedIndices = new IntList(blobs.size());
+    for(i = 0; i < blobs.size(); i++) {
       unCheckedIndices.append(i);
     }
 
@@ -229,7 +320,7 @@ class BlobDetectionUtils {
           System.out.println("#blobs left: " + unCheckedIndices.size());
         }
 
-        if((b = bd.getBlob(index1)) != null) {
+        if((b = blobs.get(index1)) != null) {
           w = b.w*(float)frame.width;
           h = b.h*(float)frame.height;
 
@@ -251,7 +342,7 @@ class BlobDetectionUtils {
           //blob is too close to a larger blob
           for(k = 0; k < unCheckedIndices.size(); k++) {
             index2 = unCheckedIndices.get(k);
-            if(index1 != index2 && (b2 = bd.getBlob(index2)) != null) {
+            if(index1 != index2 && (b2 = blobs.get(index2)) != null) {
               if(isOverlap(b, b2) &&
                 getBlobArea(frame, b2, hue) < getBlobArea(frame, b, hue)) {
                 if(!skipIndices.hasValue(index2)) {
@@ -273,7 +364,7 @@ class BlobDetectionUtils {
       //iterate through unchecked blobs
       for(i = unCheckedIndices.size() - 1; i >= 0; i--) {
         index1 = unCheckedIndices.get(i);
-        if((b = bd.getBlob(index1)) != null) {
+        if((b = blobs.get(index1)) != null) {
           point = new float[] {b.x, b.y};
           pixel = frame.pixels[
            (int)(b.y*frame.height)*frame.width +
@@ -380,13 +471,29 @@ class BlobDetectionUtils {
   ) {
     dst.beginDraw();
     dst.clear();
-    dst.copy(
-      src,
-      dstParams[0], dstParams[1],
-      dstParams[2], dstParams[3],
-      dstParams[0], dstParams[1],
-      dstParams[2], dstParams[3]
-    );
+
+    if(region != null && !isExitFilter) {
+      //only copy pixels within the region of interest
+      dst.noStroke();
+      dst.textureMode(BeeTracker.NORMAL);
+      dst.beginShape();
+      dst.texture(src);
+      for(int i = 0; i < region.length; i += 2) {
+        dst.vertex(
+          region[i]*dst.width, region[i+1]*dst.height,
+          region[i], region[i+1]
+        );
+      }
+      dst.endShape(BeeTracker.CLOSE);
+    } else {
+      dst.copy(
+        src,
+        dstParams[0], dstParams[1],
+        dstParams[2], dstParams[3],
+        dstParams[0], dstParams[1],
+        dstParams[2], dstParams[3]
+      );
+    }
 
     alphaShader.set("init", true);
     dst.filter(alphaShader);
@@ -453,6 +560,342 @@ class BlobDetectionUtils {
     return result;
   }
 
+  /**
+   * Sets the region of interest within the inset frame. The region is
+   *   rasterized once, at the dimensions expected by blob detection.
+   * @param polygon the polygon vertices as normalized {x0, y0, x1, y1, ...}
+   *   coordinates, or an array with fewer than three vertices to use the
+   *   entire inset frame
+   */
+  void setRegion(float[] polygon) {
+    if(polygon == null || polygon.length < 6) {
+      region = null;
+      regionMask = null;
+    } else if(polygon != region) {
+      region = polygon;
+      regionMask = new RegionMask(polygon, bd.imgWidth, bd.imgHeight);
+
+      if(BeeTracker.debug) {
+        System.out.println("region of interest: " + regionMask.getArea() +
+          "px of " + bd.imgWidth*bd.imgHeight + "px");
+      }
+    }
+  }
+
+  /**
+   * Sets the background model parameters and discards the current model.
+   * @param params an array containing the background model parameters:
+   *   {enabled (nonzero), learning rate, static foreground level}
+   */
+  void setBackground(float[] params) {
+    bgParams = params;
+    bgModel = null;
+  }
+
+  /**
+   * Sets whether the background model learns from subsequent frames.
+   * @param update true if the background model should be updated
+   */
+  void setBackgroundUpdate(boolean update) {
+    bgUpdate = update;
+  }
+
+  /**
+   * Clears all pixels that have been foreground for most of the recent
+   *   frames. The model is a running average of how often each pixel passes
+   *   the color thresholds, so static objects within the thresholds are
+   *   absorbed while moving bees are not. Pixels already processed for the
+   *   current frame are skipped, so overlapping search windows do not
+   *   update the model twice.
+   * @param frame the filtered frame
+   * @param x0 the left edge of the area to process, inclusive
+   * @param y0 the top edge of the area to process, inclusive
+   * @param x1 the right edge of the area to process, exclusive
+   * @param y1 the bottom edge of the area to process, exclusive
+   */
+  private void subtractBackground(
+    PImage frame,
+    int x0, int y0,
+    int x1, int y1
+  ) {
+    int i, row, end;
+    float fg;
+    float rate = bgParams[1], staticLevel = bgParams[2];
+
+    if(bgModel == null || bgModel.length != frame.pixels.length) {
+      bgModel = new float[frame.pixels.length];
+      bgStamps = new int[frame.pixels.length];
+    }
+
+    for(row = y0; row < y1; row++) {
+      end = row*frame.width + x1;
+
+      for(i = row*frame.width + x0; i < end; i++) {
+        if(bgStamps[i] == bgFrame) {
+          continue;
+        }
+        bgStamps[i] = bgFrame;
+
+        fg = (frame.pixels[i] & 0xffffff) != 0 ? 1f : 0f;
+
+        if(bgUpdate) {
+          bgModel[i] += rate*(fg - bgModel[i]);
+        }
+
+        if(bgModel[i] > staticLevel) {
+          frame.pixels[i] = 0;
+        }
+      }
+    }
+  }
+
+  /**
+   * Restricts blob detection to the specified regions of the inset frame.
+   *   The inset borders and the exit are always searched, as new bees can
+   *   only appear there.
+   * @param windows a List of normalized {xMin, yMin, xMax, yMax} bounds, or
+   *   null to search the entire inset frame
+   */
+  void setSearchWindows(List<float[]> windows) {
+    searchWindows = windows;
+  }
+
+  /**
+   * Masks the entire frame and finds all blobs in it.
+   * @param frame the filtered frame
+   */
+  private void labelFrame(PImage frame) {
+    if(regionMask != null) {
+      regionMask.apply(frame.pixels);
+    }
+
+    if(bgParams != null && bgParams[0] != 0f) {
+      subtractBackground(frame, 0, 0, frame.width, frame.height);
+    }
+
+    bd.computeBlobs(frame.pixels);
+
+    for(int i = 0; i < bd.getBlobNb(); i++) {
+      blobs.add(bd.getBlob(i));
+      blobTransforms.add(frameTransform);
+    }
+  }
+
+  /**
+   * Finds the blobs within each search window separately, so that masking,
+   *   background subtraction and labelling only visit the pixels inside the
+   *   windows. Blobs cut off by a window edge inside the frame are left to
+   *   the window that contains them, and blobs found by more than one
+   *   window are kept once.
+   * @param frame the filtered frame
+   * @return false if the windows cover too much of the frame to be worth
+   *   searching separately
+   */
+  private boolean labelSearchWindows(PImage frame) {
+    List<float[]> bounds = new ArrayList<>(searchWindows.size() + 5);
+    List<int[]> windows = new ArrayList<>(searchWindows.size() + 5);
+    BlobDetection detector;
+    Blob b;
+    float[] transform;
+    int x0, y0, x1, y1, width, height, row, i, area = 0;
+
+    bounds.addAll(searchWindows);
+
+    //inset borders
+    bounds.add(new float[] {0f, 0f, 1f, borderWidth});
+    bounds.add(new float[] {0f, 1f-borderWidth, 1f, 1f});
+    bounds.add(new float[] {0f, 0f, borderWidth, 1f});
+    bounds.add(new float[] {1f-borderWidth, 0f, 1f, 1f});
+
+    //exit
+    if(!waggleMode && exitBufParams != null) {
+      bounds.add(new float[] {
+        exitBufParams[0]-exitBufParams[2],
+        exitBufParams[1]-exitBufParams[3],
+        exitBufParams[0]+exitBufParams[2],
+        exitBufParams[1]+exitBufParams[3]
+      });
+    }
+
+    for(float[] window : bounds) {
+      x0 = BeeTracker.max(0, (int)(window[0]*frame.width));
+      y0 = BeeTracker.max(0, (int)(window[1]*frame.height));
+      x1 = BeeTracker.min(frame.width, BeeTracker.ceil(window[2]*frame.width));
+      y1 = BeeTracker.min(frame.height, BeeTracker.ceil(window[3]*frame.height));
+
+      if(x1 > x0 && y1 > y0) {
+        windows.add(new int[] {x0, y0, x1, y1});
+        area += (x1 - x0)*(y1 - y0);
+      }
+    }
+
+    if(BeeTracker.debug) {
+      System.out.println("search windows: " + windows.size() + ", " + area +
+        "px of " + frame.width*frame.height + "px");
+    }
+
+    if(area > maxWindowCoverage*frame.width*frame.height) {
+      return false;
+    }
+
+    windowDetectorsUsed.clear();
+
+    //the blob limits are static, so they are only lowered while the
+    //smaller window detectors are in use
+    BlobDetection.setConstants(
+      windowBlobMax,
+      windowLineMax,
+      Blob.MAX_NBTRIANGLE
+    );
+
+    try {
+      for(int[] window : windows) {
+        x0 = window[0];
+        y0 = window[1];
+        x1 = window[2];
+        y1 = window[3];
+
+        if(regionMask != null) {
+          regionMask.apply(frame.pixels, x0, y0, x1, y1);
+        }
+
+        if(bgParams != null && bgParams[0] != 0f) {
+          subtractBackground(frame, x0, y0, x1, y1);
+        }
+
+        //round the window size up so that detectors can be reused
+        width = (x1 - x0 + windowStep - 1)/windowStep*windowStep;
+        height = (y1 - y0 + windowStep - 1)/windowStep*windowStep;
+
+        if(windowPixels.length < width*height) {
+          windowPixels = new int[width*height];
+        } else {
+          Arrays.fill(windowPixels, 0, width*height, 0);
+        }
+
+        for(row = y0; row < y1; row++) {
+          System.arraycopy(
+            frame.pixels, row*frame.width + x0,
+            windowPixels, (row - y0)*width,
+            x1 - x0
+          );
+        }
+
+        detector = getWindowDetector(width, height);
+        detector.computeBlobs(windowPixels);
+
+        //detectors normalize grid coordinates by (size - 1)
+        transform = new float[] {
+          (float)x0/(frame.width - 1),
+          (float)y0/(frame.height - 1),
+          (float)(width - 1)/(frame.width - 1),
+          (float)(height - 1)/(frame.height - 1)
+        };
+
+        for(i = 0; i < detector.getBlobNb(); i++) {
+          b = detector.getBlob(i);
+
+          //bounds are moved to inset frame coordinates in place
+          b.x = transform[0] + transform[2]*b.x;
+          b.y = transform[1] + transform[3]*b.y;
+          b.xMin = transform[0] + transform[2]*b.xMin;
+          b.xMax = transform[0] + transform[2]*b.xMax;
+          b.yMin = transform[1] + transform[3]*b.yMin;
+          b.yMax = transform[1] + transform[3]*b.yMax;
+          b.w *= transform[2];
+          b.h *= transform[3];
+
+          if(!isClipped(b, window, frame) && !isDuplicate(b, frame)) {
+            blobs.add(b);
+            blobTransforms.add(transform);
+          }
+        }
+      }
+    } finally {
+      BlobDetection.setConstants(bdBlobMax, bdLineMax, Blob.MAX_NBTRIANGLE);
+    }
+
+    return true;
+  }
+
+  /**
+   * Retrieves a detector for a search window that has not been used for the
+   *   current frame, creating one if necessary.
+   * @param width the width of the window, in pixels
+   * @param height the height of the window, in pixels
+   * @return the detector
+   */
+  private BlobDetection getWindowDetector(int width, int height) {
+    int key = (width << 16) | height;
+    List<BlobDetection> detectors = windowDetectors.get(key);
+    Integer used = windowDetectorsUsed.get(key);
+    int index = used == null ? 0 : used;
+    BlobDetection result;
+
+    if(detectors == null) {
+      detectors = new ArrayList<>();
+      windowDetectors.put(key, detectors);
+    }
+
+    if(index < detectors.size()) {
+      result = detectors.get(index);
+    } else {
+      result = new BlobDetection(width, height);
+      result.setPosDiscrimination(true);
+      result.setThreshold(.2f);
+      detectors.add(result);
+    }
+
+    windowDetectorsUsed.put(key, index + 1);
+
+    return result;
+  }
+
+  /**
+   * @param b the blob, in inset frame coordinates
+   * @param window the {x0, y0, x1, y1} pixel bounds of the search window
+   * @param frame the filtered frame
+   * @return true if the blob touches a window edge that lies inside the
+   *   frame without reaching the frame edge, so part of it may be missing
+   */
+  private boolean isClipped(Blob b, int[] window, PImage frame) {
+    float xMin = b.xMin*(frame.width - 1), xMax = b.xMax*(frame.width - 1);
+    float yMin = b.yMin*(frame.height - 1), yMax = b.yMax*(frame.height - 1);
+
+    boolean atWindowEdge =
+      (window[0] > 0 && xMin <= window[0] + 1f) ||
+      (window[1] > 0 && yMin <= window[1] + 1f) ||
+      (window[2] < frame.width && xMax >= window[2] - 2f) ||
+      (window[3] < frame.height && yMax >= window[3] - 2f);
+    boolean atFrameEdge = xMin <= 1f || yMin <= 1f ||
+      xMax >= frame.width - 2f || yMax >= frame.height - 2f;
+
+    return atWindowEdge && !atFrameEdge;
+  }
+
+  /**
+   * @param b the blob, in inset frame coordinates
+   * @param frame the filtered frame
+   * @return true if a blob with the same bounds was already found in
+   *   another search window
+   */
+  private boolean isDuplicate(Blob b, PImage frame) {
+    float dx = 1f/frame.width, dy = 1f/frame.height;
+
+    for(Blob b2 : blobs) {
+      if(
+        BeeTracker.abs(b.xMin - b2.xMin) < dx &&
+        BeeTracker.abs(b.xMax - b2.xMax) < dx &&
+        BeeTracker.abs(b.yMin - b2.yMin) < dy &&
+        BeeTracker.abs(b.yMax - b2.yMax) < dy
+      ) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
   /**
    * Sets the filter behavior based on event detection type.
    * @param waggleMode true for waggle dance detection
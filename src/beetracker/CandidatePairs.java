@@ -0,0 +1,100 @@
+/*
+* BeeTracker
+* Copyright (C) 2016 Kay Choi
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package beetracker;
+
+import java.util.Arrays;
+
+/**
+ * @class CandidatePairs
+ * @author Kay Choi
+ * @date 19 Oct 16
+ * @description A sparse cost matrix of trajectory-to-point pairs, stored in
+ *   reusable primitive arrays.
+ */
+class CandidatePairs {
+  private int[] rows, cols;
+  private float[] costs;
+  private int size = 0;
+
+  /**
+   * Class constructor.
+   */
+  CandidatePairs() {
+    rows = new int[64];
+    cols = new int[64];
+    costs = new float[64];
+  }
+
+  /**
+   * Adds a candidate pair.
+   * @param row the row (trajectory) index
+   * @param col the column (point) index
+   * @param cost the cost of the pair
+   */
+  void add(int row, int col, float cost) {
+    if(size == rows.length) {
+      rows = Arrays.copyOf(rows, size*2);
+      cols = Arrays.copyOf(cols, size*2);
+      costs = Arrays.copyOf(costs, size*2);
+    }
+
+    rows[size] = row;
+    cols[size] = col;
+    costs[size] = cost;
+    size++;
+  }
+
+  /**
+   * Removes all pairs, keeping the allocated storage.
+   */
+  void clear() {
+    size = 0;
+  }
+
+  /**
+   * @return the number of pairs
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * @param index the pair index
+   * @return the row index of the pair
+   */
+  int getRow(int index) {
+    return rows[index];
+  }
+
+  /**
+   * @param index the pair index
+   * @return the column index of the pair
+   */
+  int getCol(int index) {
+    return cols[index];
+  }
+
+  /**
+   * @param index the pair index
+   * @return the cost of the pair
+   */
+  float getCost(int index) {
+    return costs[index];
+  }
+}
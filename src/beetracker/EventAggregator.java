@@ -0,0 +1,127 @@
+/*
+* BeeTracker
+* Copyright (C) 2016 Kay Choi
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package beetracker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * @class EventAggregator
+ * @author Kay Choi
+ * @date 19 Oct 16
+ * @description Keeps running event counts per color and event type. The
+ *   counts may be read from any thread while events are delivered. The
+ *   received events are kept so that a rewind can take them back out of the
+ *   counts.
+ */
+class EventAggregator implements EventSink {
+  private final ConcurrentHashMap<Integer, AtomicIntegerArray> counts =
+    new ConcurrentHashMap<>();
+  private final List<TrackingEvent> received = new ArrayList<>();
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void accept(TrackingEvent event) {
+    AtomicIntegerArray colorCounts = counts.get(event.color);
+
+    if(colorCounts == null) {
+      counts.putIfAbsent(
+        event.color,
+        new AtomicIntegerArray(EventLog.typeNames.length)
+      );
+      colorCounts = counts.get(event.color);
+    }
+
+    colorCounts.incrementAndGet(event.type);
+    received.add(event);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void rewind(float time) {
+    TrackingEvent event;
+
+    for(int i = received.size() - 1; i >= 0; i--) {
+      event = received.get(i);
+
+      if(event.time >= time) {
+        counts.get(event.color).decrementAndGet(event.type);
+        received.remove(i);
+      }
+    }
+  }
+
+  /**
+   * @return true, as the totals must count every event
+   */
+  @Override
+  public boolean isDurable() {
+    return true;
+  }
+
+  /**
+   * Retrieves the number of events received so far.
+   * @param color the six-digit hexadecimal RGB value
+   * @param type the index of the event type in EventLog.typeNames
+   * @return the number of events of the type for the color
+   */
+  int getCount(int color, int type) {
+    AtomicIntegerArray colorCounts = counts.get(color);
+
+    return colorCounts == null ? 0 : colorCounts.get(type);
+  }
+
+  /**
+   * @return a line per color listing the event counts
+   */
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+
+    for(int color : counts.keySet()) {
+      builder.append(String.format("%06x:", color));
+
+      for(int type = 0; type < EventLog.typeNames.length; type++) {
+        builder.append(' ')
+          .append(EventLog.typeNames[type])
+          .append(' ')
+          .append(getCount(color, type));
+      }
+
+      builder.append('\n');
+    }
+
+    return builder.toString();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void close() {
+    if(!counts.isEmpty()) {
+      System.out.append("event totals:\n").append(toString()).flush();
+    }
+  }
+}
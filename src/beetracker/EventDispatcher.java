@@ -0,0 +1,234 @@
+/*
+* BeeTracker
+* Copyright (C) 2016 Kay Choi
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package beetracker;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @class EventDispatcher
+ * @author Kay Choi
+ * @date 19 Oct 16
+ * @description Delivers tracking events to subscribed sinks. Publishing
+ *   only enqueues the event on a lock-free queue, and each sink drains its
+ *   own queue on a dedicated thread, so a slow sink does not block the
+ *   caller. Each queue is bounded. When a queue is full, events for sinks
+ *   that may lose them are dropped with a warning, while the caller waits
+ *   for room in the queues of durable sinks. Events already published are
+ *   remembered, so that after a rewind only withdrawn events are sent again.
+ */
+class EventDispatcher {
+  private static final long joinTimeOut = 2000;
+  private static final long waitInterval = 100000;
+  private static final int queueCapacity = 4096;
+  private final CopyOnWriteArrayList<Subscriber> subscribers =
+    new CopyOnWriteArrayList<>();
+  private final HashSet<TrackingEvent> published = new HashSet<>();
+
+  private static class Subscriber implements Runnable {
+    final EventSink sink;
+    final ConcurrentLinkedQueue<TrackingEvent> queue =
+      new ConcurrentLinkedQueue<>();
+    final AtomicInteger queueSize = new AtomicInteger();
+    final Thread thread;
+    volatile Thread waiting = null;
+    volatile boolean running = true;
+    boolean isDropping = false;
+    int numDropped = 0;
+
+    Subscriber(EventSink sink) {
+      this.sink = sink;
+      thread = new Thread(this,
+        "event sink " + sink.getClass().getSimpleName());
+      thread.setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      TrackingEvent event;
+      Thread publisher;
+
+      while(running || !queue.isEmpty()) {
+        event = queue.poll();
+
+        if(event == null) {
+          LockSupport.park(this);
+        } else {
+          queueSize.decrementAndGet();
+
+          publisher = waiting;
+          if(publisher != null) {
+            LockSupport.unpark(publisher);
+          }
+
+          try {
+            if(event.isRewind()) {
+              sink.rewind(event.time);
+            } else {
+              sink.accept(event);
+            }
+          } catch(RuntimeException e) {
+            e.printStackTrace(System.err);
+          }
+        }
+      }
+
+      sink.close();
+    }
+
+    /**
+     * Queues an event. If the queue is full, the event is dropped unless the
+     *   sink is durable or the event is a rewind marker, in which case the
+     *   caller waits until the sink thread makes room. Dropping is reported
+     *   once until the queue has drained to half its capacity.
+     * @param event the event
+     */
+    void offer(TrackingEvent event) {
+      if(queueSize.get() <= queueCapacity / 2) {
+        isDropping = false;
+      }
+
+      if(queueSize.get() >= queueCapacity) {
+        if(!sink.isDurable() && !event.isRewind()) {
+          if(!isDropping) {
+            System.err.println(thread.getName() +
+              " is dropping events due to a full queue");
+          }
+          isDropping = true;
+          numDropped++;
+
+          return;
+        }
+
+        waiting = Thread.currentThread();
+        while(queueSize.get() >= queueCapacity && thread.isAlive()) {
+          LockSupport.unpark(thread);
+          LockSupport.parkNanos(this, waitInterval);
+        }
+        waiting = null;
+      }
+
+      queueSize.incrementAndGet();
+      queue.offer(event);
+      LockSupport.unpark(thread);
+    }
+
+    void stop() {
+      running = false;
+      LockSupport.unpark(thread);
+
+      try {
+        thread.join(joinTimeOut);
+      } catch(InterruptedException e) {
+        e.printStackTrace(System.err);
+
+        Thread.currentThread().interrupt();
+      }
+
+      if(numDropped > 0) {
+        System.err.println(thread.getName() + " dropped " + numDropped +
+          " event(s) due to a full queue");
+      }
+    }
+  }
+
+  /**
+   * Adds a sink. The sink receives all events published afterwards.
+   * @param sink the sink to add
+   */
+  void subscribe(EventSink sink) {
+    Subscriber subscriber = new Subscriber(sink);
+    subscribers.add(subscriber);
+    subscriber.thread.start();
+  }
+
+  /**
+   * Removes a sink. Queued events are delivered before the sink is closed.
+   * @param sink the sink to remove
+   */
+  void unsubscribe(EventSink sink) {
+    for(Subscriber subscriber : subscribers) {
+      if(subscriber.sink == sink) {
+        subscribers.remove(subscriber);
+        subscriber.stop();
+      }
+    }
+  }
+
+  /**
+   * Queues an event for all subscribed sinks. Events that were already
+   *   published and not withdrawn since are ignored. Only waits if the queue
+   *   of a durable sink is full.
+   * @param event the event
+   */
+  void publish(TrackingEvent event) {
+    if(published.add(event)) {
+      for(Subscriber subscriber : subscribers) {
+        subscriber.offer(event);
+      }
+    }
+  }
+
+  /**
+   * Withdraws the published events at or after a time stamp. If any were
+   *   published, a rewind marker is queued for all subscribed sinks, and the
+   *   withdrawn events will be sent again when they are next published.
+   * @param time the time stamp in seconds
+   */
+  void rewind(float time) {
+    Iterator<TrackingEvent> iter = published.iterator();
+    boolean isWithdrawn = false;
+
+    while(iter.hasNext()) {
+      if(iter.next().time >= time) {
+        iter.remove();
+        isWithdrawn = true;
+      }
+    }
+
+    if(isWithdrawn) {
+      TrackingEvent marker = TrackingEvent.rewind(time);
+
+      for(Subscriber subscriber : subscribers) {
+        subscriber.offer(marker);
+      }
+    }
+  }
+
+  /**
+   * @return true if any sinks are subscribed
+   */
+  boolean hasSubscribers() {
+    return !subscribers.isEmpty();
+  }
+
+  /**
+   * Removes all sinks, delivering queued events first.
+   */
+  void close() {
+    for(Subscriber subscriber : subscribers) {
+      subscribers.remove(subscriber);
+      subscriber.stop();
+    }
+    published.clear();
+  }
+}
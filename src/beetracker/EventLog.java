@@ -0,0 +1,186 @@
+/*
+* BeeTracker
+* Copyright (C) 2016 Kay Choi
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package beetracker;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * @class EventLog
+ * @author Kay Choi
+ * @date 19 Oct 16
+ * @description An append-only log of tracking events, stored as primitive
+ *   columns kept in time order.
+ */
+class EventLog {
+  static final String[] typeNames = {"ingress", "egress", "waggle"};
+
+  private float[] times;
+  private int[] ids, colors;
+  private byte[] types;
+  private int size = 0;
+
+  /**
+   * Class constructor.
+   */
+  EventLog() {
+    times = new float[64];
+    ids = new int[64];
+    colors = new int[64];
+    types = new byte[64];
+  }
+
+  /**
+   * Records an event. Events are usually recorded in time order, in which
+   *   case this is a simple append.
+   * @param time the time stamp of the event in seconds
+   * @param id the ID of the bee
+   * @param color the six-digit hexadecimal RGB value of the bee
+   * @param type the event type index
+   * @return the index of the new event
+   */
+  int add(float time, int id, int color, int type) {
+    if(size == times.length) {
+      times = Arrays.copyOf(times, size*2);
+      ids = Arrays.copyOf(ids, size*2);
+      colors = Arrays.copyOf(colors, size*2);
+      types = Arrays.copyOf(types, size*2);
+    }
+
+    //insert after all events with equal or earlier time stamps
+    int index = upperBound(time);
+    if(index < size) {
+      System.arraycopy(times, index, times, index + 1, size - index);
+      System.arraycopy(ids, index, ids, index + 1, size - index);
+      System.arraycopy(colors, index, colors, index + 1, size - index);
+      System.arraycopy(types, index, types, index + 1, size - index);
+    }
+
+    times[index] = time;
+    ids[index] = id;
+    colors[index] = color;
+    types[index] = (byte)type;
+    size++;
+
+    return index;
+  }
+
+  /**
+   * @param time the time stamp in seconds
+   * @return the index of the first event at or after the time stamp
+   */
+  int lowerBound(float time) {
+    int start = 0, stop = size, mid;
+
+    while(start < stop) {
+      mid = (start + stop) >>> 1;
+
+      if(times[mid] < time) {
+        start = mid + 1;
+      } else {
+        stop = mid;
+      }
+    }
+
+    return start;
+  }
+
+  /**
+   * @param time the time stamp in seconds
+   * @return the index of the first event after the time stamp
+   */
+  int upperBound(float time) {
+    int start = 0, stop = size, mid;
+
+    while(start < stop) {
+      mid = (start + stop) >>> 1;
+
+      if(times[mid] <= time) {
+        start = mid + 1;
+      } else {
+        stop = mid;
+      }
+    }
+
+    return start;
+  }
+
+  /**
+   * Removes all events after a time stamp.
+   * @param time the time stamp in seconds
+   */
+  void truncate(float time) {
+    size = upperBound(time);
+  }
+
+  /**
+   * Removes all events.
+   */
+  void clear() {
+    size = 0;
+  }
+
+  /**
+   * @return the number of events
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * @param index the event index
+   * @return the time stamp of the event in seconds
+   */
+  float getTime(int index) {
+    return times[index];
+  }
+
+  /**
+   * @param index the event index
+   * @return the ID of the bee
+   */
+  int getID(int index) {
+    return ids[index];
+  }
+
+  /**
+   * @param index the event index
+   * @return the six-digit hexadecimal RGB value of the bee
+   */
+  int getColor(int index) {
+    return colors[index];
+  }
+
+  /**
+   * @param index the event index
+   * @return the event type index
+   */
+  int getType(int index) {
+    return types[index];
+  }
+
+  /**
+   * @param index the event index
+   * @return the event description in the format "ID,#RRGGBB,type"
+   */
+  String describe(int index) {
+    return String.format(Locale.ROOT, "%d,#%06x,%s", ids[index], colors[index],
+      typeNames[types[index]]);
+  }
+}
@@ -0,0 +1,53 @@
+/*
+* BeeTracker
+* Copyright (C) 2016 Kay Choi
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package beetracker;
+
+/**
+ * @class EventSink
+ * @author Kay Choi
+ * @date 19 Oct 16
+ * @description A consumer of tracking events. Each subscribed sink is
+ *   called from its own thread, never from the frame loop.
+ */
+interface EventSink {
+  /**
+   * Handles a single event.
+   * @param event the event
+   */
+  void accept(TrackingEvent event);
+
+  /**
+   * Withdraws all events at or after a time stamp. Called when tracking is
+   *   restored to an earlier time, before the events are published again.
+   * @param time the time stamp in seconds
+   */
+  void rewind(float time);
+
+  /**
+   * @return true if the sink must receive every event, so the frame loop
+   *   waits for room when the sink falls behind; false if events may be
+   *   dropped instead
+   */
+  boolean isDurable();
+
+  /**
+   * Releases any resources held by the sink. Called once, after the last
+   *   event has been delivered.
+   */
+  void close();
+}
@@ -0,0 +1,150 @@
+/*
+* BeeTracker
+* Copyright (C) 2016 Kay Choi
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package beetracker;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @class FileEventSink
+ * @author Kay Choi
+ * @date 19 Oct 16
+ * @description Writes events to a CSV or newline-delimited JSON file,
+ *   flushing after every event. The file is overwritten when the sink is
+ *   opened, so each session or replay leaves exactly one copy of its events.
+ *   The file offset of every event is kept, so a rewind truncates the file
+ *   instead of leaving the withdrawn events to be written twice.
+ */
+class FileEventSink implements EventSink {
+  private final boolean json;
+  private final List<TrackingEvent> written = new ArrayList<>();
+  private final List<Long> offsets = new ArrayList<>();
+  private BufferedWriter writer = null;
+  private FileChannel channel = null;
+
+  /**
+   * Class constructor.
+   * @param file the file to write to
+   * @param json true for newline-delimited JSON, false for CSV
+   */
+  FileEventSink(File file, boolean json) {
+    this.json = json;
+
+    try {
+      file.getParentFile().mkdirs();
+      FileOutputStream stream = new FileOutputStream(file, false);
+      channel = stream.getChannel();
+      writer = new BufferedWriter(new OutputStreamWriter(stream, "UTF-8"));
+
+      if(!json) {
+        writer.append("\"seek time\",\"bee ID\",color,type\n").flush();
+      }
+    } catch(IOException e) {
+      e.printStackTrace(System.err);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void accept(TrackingEvent event) {
+    if(writer != null) {
+      try {
+        offsets.add(channel.position());
+        written.add(event);
+
+        writer.append(json ? event.toJSON() : event.toCSV())
+          .append('\n')
+          .flush();
+      } catch(IOException e) {
+        e.printStackTrace(System.err);
+      }
+    }
+  }
+
+  /**
+   * Truncates the file at the first withdrawn event, then writes back any
+   *   later events that were not withdrawn.
+   * @param time the time stamp in seconds
+   */
+  @Override
+  public void rewind(float time) {
+    int i = 0;
+
+    while(i < written.size() && written.get(i).time < time) {
+      i++;
+    }
+
+    if(writer != null && i < written.size()) {
+      List<TrackingEvent> kept = new ArrayList<>();
+      long offset = offsets.get(i);
+      TrackingEvent event;
+
+      for(int j = written.size() - 1; j >= i; j--) {
+        event = written.remove(j);
+        offsets.remove(j);
+
+        if(event.time < time) {
+          kept.add(0, event);
+        }
+      }
+
+      try {
+        channel.truncate(offset);
+        channel.position(offset);
+
+        for(TrackingEvent tmp : kept) {
+          accept(tmp);
+        }
+      } catch(IOException e) {
+        e.printStackTrace(System.err);
+      }
+    }
+  }
+
+  /**
+   * @return true, as events written to file must not be lost
+   */
+  @Override
+  public boolean isDurable() {
+    return true;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void close() {
+    if(writer != null) {
+      try {
+        writer.close();
+      } catch(IOException e) {
+        e.printStackTrace(System.err);
+      }
+
+      writer = null;
+    }
+  }
+}
@@ -0,0 +1,716 @@
+/*
+* BeeTracker
+* Copyright (C) 2016 Kay Choi
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package beetracker;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import processing.data.IntList;
+import processing.data.JSONObject;
+
+/**
+ * @class FramePointStore
+ * @author Kay Choi
+ * @date 19 Oct 16
+ * @description The centroids of all analyzed frames, stored as primitive
+ *   columns: a time stamp, analysis stride and point count per frame, and a
+ *   color index and normalized xy coordinates per point. Frames are kept in
+ *   time order. Both sets of columns share a gap at the last insertion
+ *   point, so appending frames, or inserting consecutive frames in the
+ *   middle, takes amortized constant time.
+ */
+class FramePointStore {
+  static final String fileName = "points.bin";
+  static final String legacyFileName = "points.json";
+  private static final int magic = 0x42545054;
+  private static final int version = 2;
+  private static final int maxStride = 255;
+  private static final float epsilon = 0.000001f;
+  private static final int chunkSize = 1 << 16;
+
+  private final IntList palette = new IntList();
+  private float[] times;
+  private int[] counts, offsets;
+  private byte[] strides;
+  private byte[] colorIndices;
+  private float[] xs, ys;
+  private int numFrames = 0, numPoints = 0;
+  private int frameGap = 0, frameGapSize;
+  private int pointGap = 0, pointGapSize;
+
+  /**
+   * Class constructor for an empty store.
+   */
+  FramePointStore() {
+    this(64, 256);
+  }
+
+  /**
+   * Class constructor.
+   * @param frameCapacity the initial number of frames
+   * @param pointCapacity the initial number of points
+   */
+  private FramePointStore(int frameCapacity, int pointCapacity) {
+    times = new float[frameCapacity];
+    counts = new int[frameCapacity];
+    offsets = new int[frameCapacity];
+    strides = new byte[frameCapacity];
+    colorIndices = new byte[pointCapacity];
+    xs = new float[pointCapacity];
+    ys = new float[pointCapacity];
+    frameGapSize = frameCapacity;
+    pointGapSize = pointCapacity;
+  }
+
+  /**
+   * @return the number of frames
+   */
+  int size() {
+    return numFrames;
+  }
+
+  /**
+   * @return the number of points in all frames
+   */
+  int getPointCount() {
+    return numPoints;
+  }
+
+  /**
+   * @return true if there are no frames
+   */
+  boolean isEmpty() {
+    return numFrames == 0;
+  }
+
+  /**
+   * @param index the frame index
+   * @return the physical index of the frame in the frame columns
+   */
+  private int frameSlot(int index) {
+    return index < frameGap ? index : index + frameGapSize;
+  }
+
+  /**
+   * @param index the frame index
+   * @return the time stamp of the frame in seconds
+   */
+  float getTime(int index) {
+    return times[frameSlot(index)];
+  }
+
+  /**
+   * @param index the frame index
+   * @return the number of video frames per analyzed frame when the frame
+   *   was recorded
+   */
+  int getStride(int index) {
+    return strides[frameSlot(index)] & 0xff;
+  }
+
+  /**
+   * @param timeStamp the time stamp in seconds
+   * @return the index of the first frame after the time stamp
+   */
+  int upperBound(float timeStamp) {
+    int start = 0, stop = numFrames, mid;
+
+    while(start < stop) {
+      mid = (start + stop) >>> 1;
+
+      if(getTime(mid) <= timeStamp) {
+        start = mid + 1;
+      } else {
+        stop = mid;
+      }
+    }
+
+    return start;
+  }
+
+  /**
+   * @param timeStamp the time stamp in seconds
+   * @return the index of the first frame at or after the time stamp
+   */
+  int lowerBound(float timeStamp) {
+    int start = 0, stop = numFrames, mid;
+
+    while(start < stop) {
+      mid = (start + stop) >>> 1;
+
+      if(getTime(mid) < timeStamp) {
+        start = mid + 1;
+      } else {
+        stop = mid;
+      }
+    }
+
+    return start;
+  }
+
+  /**
+   * Retrieves the centroids of a frame.
+   * @param index the frame index
+   * @param colors the colors to include even if the frame has no points of
+   *   that color
+   * @return a new map of colors to lists of normalized xy coordinates
+   */
+  HashMap<Integer, List<float[]>> getPoints(int index, IntList colors) {
+    HashMap<Integer, List<float[]>> result = new HashMap<>();
+    int slot = frameSlot(index), color, i;
+    List<float[]> list;
+
+    for(int tmp : colors) {
+      result.put(tmp, new ArrayList<float[]>(1));
+    }
+
+    for(i = offsets[slot]; i < offsets[slot] + counts[slot]; i++) {
+      color = palette.get(colorIndices[i] & 0xff);
+      list = result.get(color);
+
+      if(list == null) {
+        list = new ArrayList<>(1);
+        result.put(color, list);
+      }
+
+      list.add(new float[] {xs[i], ys[i]});
+    }
+
+    return result;
+  }
+
+  /**
+   * Stores the centroids of a frame, unless a frame with the same time
+   *   stamp has already been stored.
+   * @param timeStamp the time stamp of the frame in seconds
+   * @param stride the number of video frames per analyzed frame
+   * @param points a map of colors to lists of normalized xy coordinates
+   * @return the index of the new frame, or -1 if it was not stored
+   */
+  int put(float timeStamp, int stride, Map<Integer, List<float[]>> points) {
+    int index = upperBound(timeStamp);
+
+    if(index > 0 && timeStamp - getTime(index - 1) <= epsilon) {
+      return -1;
+    }
+
+    int count = 0, colorIndex;
+    for(List<float[]> list : points.values()) {
+      count += list.size();
+    }
+
+    moveGap(index);
+    reserve(1, count);
+
+    times[frameGap] = timeStamp;
+    strides[frameGap] = (byte)Math.max(1, Math.min(stride, maxStride));
+    counts[frameGap] = count;
+    offsets[frameGap] = pointGap;
+
+    for(Map.Entry<Integer, List<float[]>> entry : points.entrySet()) {
+      colorIndex = palette.index(entry.getKey());
+
+      if(colorIndex < 0) {
+        colorIndex = palette.size();
+        palette.append(entry.getKey());
+      }
+
+      for(float[] point : entry.getValue()) {
+        colorIndices[pointGap] = (byte)colorIndex;
+        xs[pointGap] = point[0];
+        ys[pointGap] = point[1];
+        pointGap++;
+      }
+    }
+
+    frameGap++;
+    frameGapSize--;
+    pointGapSize -= count;
+    numFrames++;
+    numPoints += count;
+
+    return index;
+  }
+
+  /**
+   * Removes the frames within a time range.
+   * @param start the start of the range in seconds, inclusive
+   * @param end the end of the range in seconds, exclusive
+   */
+  void remove(float start, float end) {
+    int first = lowerBound(start), last = lowerBound(end);
+
+    if(first >= last) {
+      return;
+    }
+
+    //the removed frames join the gap
+    moveGap(last);
+
+    int removedPoints = pointGap - offsets[first];
+
+    pointGap -= removedPoints;
+    pointGapSize += removedPoints;
+    frameGapSize += last - first;
+    frameGap = first;
+    numPoints -= removedPoints;
+    numFrames -= last - first;
+  }
+
+  /**
+   * Moves the gap to before a frame.
+   * @param index the index of the frame to move the gap before
+   */
+  private void moveGap(int index) {
+    int i, n;
+
+    if(index < frameGap) {
+      //frames before the gap move to after it
+      n = pointGap - offsets[index];
+      shiftPoints(offsets[index], offsets[index] + pointGapSize, n);
+      pointGap -= n;
+
+      n = frameGap - index;
+      shiftFrames(index, index + frameGapSize, n);
+      for(i = index + frameGapSize; i < index + frameGapSize + n; i++) {
+        offsets[i] += pointGapSize;
+      }
+      frameGap = index;
+    } else if(index > frameGap) {
+      //frames after the gap move to before it
+      n = (index < numFrames ? offsets[frameSlot(index)] :
+        numPoints + pointGapSize) - (pointGap + pointGapSize);
+      shiftPoints(pointGap + pointGapSize, pointGap, n);
+      pointGap += n;
+
+      n = index - frameGap;
+      shiftFrames(frameGap + frameGapSize, frameGap, n);
+      for(i = frameGap; i < index; i++) {
+        offsets[i] -= pointGapSize;
+      }
+      frameGap = index;
+    }
+  }
+
+  /**
+   * Copies a range of the frame columns.
+   * @param from the first physical index to copy from
+   * @param to the first physical index to copy to
+   * @param n the number of frames to copy
+   */
+  private void shiftFrames(int from, int to, int n) {
+    System.arraycopy(times, from, times, to, n);
+    System.arraycopy(counts, from, counts, to, n);
+    System.arraycopy(offsets, from, offsets, to, n);
+    System.arraycopy(strides, from, strides, to, n);
+  }
+
+  /**
+   * Copies a range of the point columns.
+   * @param from the first physical index to copy from
+   * @param to the first physical index to copy to
+   * @param n the number of points to copy
+   */
+  private void shiftPoints(int from, int to, int n) {
+    System.arraycopy(colorIndices, from, colorIndices, to, n);
+    System.arraycopy(xs, from, xs, to, n);
+    System.arraycopy(ys, from, ys, to, n);
+  }
+
+  /**
+   * Grows the gap to hold at least the specified numbers of frames and
+   *   points. The capacity is at least doubled when the gap is grown.
+   * @param frames the number of frames
+   * @param points the number of points
+   */
+  private void reserve(int frames, int points) {
+    int tail, capacity;
+
+    if(frameGapSize < frames) {
+      tail = numFrames - frameGap;
+      capacity = Math.max(2*times.length, numFrames + frames);
+
+      float[] newTimes = new float[capacity];
+      int[] newCounts = new int[capacity];
+      int[] newOffsets = new int[capacity];
+      byte[] newStrides = new byte[capacity];
+
+      System.arraycopy(times, 0, newTimes, 0, frameGap);
+      System.arraycopy(counts, 0, newCounts, 0, frameGap);
+      System.arraycopy(offsets, 0, newOffsets, 0, frameGap);
+      System.arraycopy(strides, 0, newStrides, 0, frameGap);
+      System.arraycopy(times, frameGap + frameGapSize, newTimes,
+        capacity - tail, tail);
+      System.arraycopy(counts, frameGap + frameGapSize, newCounts,
+        capacity - tail, tail);
+      System.arraycopy(offsets, frameGap + frameGapSize, newOffsets,
+        capacity - tail, tail);
+      System.arraycopy(strides, frameGap + frameGapSize, newStrides,
+        capacity - tail, tail);
+
+      times = newTimes;
+      counts = newCounts;
+      offsets = newOffsets;
+      strides = newStrides;
+      frameGapSize = capacity - numFrames;
+    }
+
+    if(pointGapSize < points) {
+      tail = numPoints - pointGap;
+      capacity = Math.max(2*xs.length, numPoints + points);
+
+      byte[] newColorIndices = new byte[capacity];
+      float[] newXs = new float[capacity];
+      float[] newYs = new float[capacity];
+
+      System.arraycopy(colorIndices, 0, newColorIndices, 0, pointGap);
+      System.arraycopy(xs, 0, newXs, 0, pointGap);
+      System.arraycopy(ys, 0, newYs, 0, pointGap);
+      System.arraycopy(colorIndices, pointGap + pointGapSize,
+        newColorIndices, capacity - tail, tail);
+      System.arraycopy(xs, pointGap + pointGapSize, newXs,
+        capacity - tail, tail);
+      System.arraycopy(ys, pointGap + pointGapSize, newYs,
+        capacity - tail, tail);
+
+      //frames after the gap point past the grown point gap
+      for(int i = frameGap + frameGapSize; i < times.length; i++) {
+        offsets[i] += capacity - numPoints - pointGapSize;
+      }
+
+      colorIndices = newColorIndices;
+      xs = newXs;
+      ys = newYs;
+      pointGapSize = capacity - numPoints;
+    }
+  }
+
+  /**
+   * Writes all frames to a file. The frames are written to a temporary file
+   *   that then replaces the file, so an interrupted write never leaves a
+   *   partial file behind.
+   * @param file the file to write to
+   * @throws IOException if the file could not be written
+   */
+  void write(File file) throws IOException {
+    File tmpFile = new File(file.getPath() + ".tmp");
+
+    writeFrames(tmpFile);
+
+    try {
+      Files.move(
+        tmpFile.toPath(),
+        file.toPath(),
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE
+      );
+    } catch(AtomicMoveNotSupportedException e) {
+      Files.move(
+        tmpFile.toPath(),
+        file.toPath(),
+        StandardCopyOption.REPLACE_EXISTING
+      );
+    }
+  }
+
+  /**
+   * Writes all frames to a new file.
+   * @param file the file to write to
+   * @throws IOException if the file could not be written
+   */
+  private void writeFrames(File file) throws IOException {
+    //close the gap so that each column is contiguous
+    moveGap(numFrames);
+
+    FileChannel channel = new FileOutputStream(file).getChannel();
+    ByteBuffer buffer = ByteBuffer.allocate(chunkSize);
+    int i, n;
+
+    try {
+      buffer.putInt(magic).putInt(version).putInt(palette.size());
+      for(i = 0; i < palette.size(); i++) {
+        buffer.putInt(palette.get(i));
+      }
+      buffer.putInt(numFrames).putInt(numPoints);
+
+      for(i = 0; i < numFrames; i += n) {
+        n = Math.min(numFrames - i, buffer.remaining()/4);
+        buffer.asFloatBuffer().put(times, i, n);
+        buffer.position(buffer.position() + 4*n);
+        flush(channel, buffer, 4);
+      }
+      for(i = 0; i < numFrames; i += n) {
+        n = Math.min(numFrames - i, buffer.remaining()/4);
+        buffer.asIntBuffer().put(counts, i, n);
+        buffer.position(buffer.position() + 4*n);
+        flush(channel, buffer, 4);
+      }
+      for(i = 0; i < numFrames; i += n) {
+        n = Math.min(numFrames - i, buffer.remaining());
+        buffer.put(strides, i, n);
+        flush(channel, buffer, 4);
+      }
+      for(i = 0; i < numPoints; i += n) {
+        n = Math.min(numPoints - i, buffer.remaining());
+        buffer.put(colorIndices, i, n);
+        flush(channel, buffer, 4);
+      }
+      writeFloats(channel, buffer, xs, numPoints);
+      writeFloats(channel, buffer, ys, numPoints);
+
+      flush(channel, buffer, chunkSize);
+      channel.force(true);
+    } finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * Writes a column of floats through a buffer.
+   * @param channel the channel to write to
+   * @param buffer the buffer to write through
+   * @param src the array to write
+   * @param n the number of floats to write
+   * @throws IOException if the channel could not be written
+   */
+  private static void writeFloats(FileChannel channel, ByteBuffer buffer,
+    float[] src, int n) throws IOException
+  {
+    int count;
+
+    for(int i = 0; i < n; i += count) {
+      count = Math.min(n - i, buffer.remaining()/4);
+      buffer.asFloatBuffer().put(src, i, count);
+      buffer.position(buffer.position() + 4*count);
+      flush(channel, buffer, 4);
+    }
+  }
+
+  /**
+   * Writes the contents of a buffer once it is nearly full.
+   * @param channel the channel to write to
+   * @param buffer the buffer to write
+   * @param minRemaining the number of bytes below which the buffer is
+   *   written
+   * @throws IOException if the channel could not be written
+   */
+  private static void flush(FileChannel channel, ByteBuffer buffer,
+    int minRemaining) throws IOException
+  {
+    if(buffer.remaining() < minRemaining) {
+      buffer.flip();
+      while(buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      buffer.clear();
+    }
+  }
+
+  /**
+   * Reads the frames in a file written by write().
+   * @param file the file to read
+   * @return a new FramePointStore containing the frames
+   * @throws IOException if the file could not be read or is not in the
+   *   expected format
+   */
+  static FramePointStore read(File file) throws IOException {
+    FileChannel channel = new FileInputStream(file).getChannel();
+    ByteBuffer buffer = ByteBuffer.allocate(chunkSize);
+    FramePointStore result;
+    int i, n, fileVersion;
+
+    buffer.flip();
+
+    try {
+      fill(channel, buffer, 12, file);
+      if(buffer.getInt() != magic) {
+        throw new IOException("unsupported point file: " + file.getPath());
+      }
+
+      //version 1 files predate the stride column
+      fileVersion = buffer.getInt();
+      if(fileVersion < 1 || fileVersion > version) {
+        throw new IOException("unsupported point file: " + file.getPath());
+      }
+
+      int[] colors = new int[buffer.getInt()];
+      for(i = 0; i < colors.length; i++) {
+        fill(channel, buffer, 4, file);
+        colors[i] = buffer.getInt();
+      }
+
+      fill(channel, buffer, 8, file);
+      int frames = buffer.getInt(), points = buffer.getInt();
+
+      result = new FramePointStore(
+        Math.max(frames, 1),
+        Math.max(points, 1)
+      );
+      result.palette.append(colors);
+
+      readFloats(channel, buffer, result.times, frames, file);
+      for(i = 0; i < frames; i += n) {
+        fill(channel, buffer, 4, file);
+        n = Math.min(frames - i, buffer.remaining()/4);
+        buffer.asIntBuffer().get(result.counts, i, n);
+        buffer.position(buffer.position() + 4*n);
+      }
+      if(fileVersion > 1) {
+        for(i = 0; i < frames; i += n) {
+          fill(channel, buffer, 1, file);
+          n = Math.min(frames - i, buffer.remaining());
+          buffer.get(result.strides, i, n);
+        }
+      } else {
+        Arrays.fill(result.strides, 0, frames, (byte)1);
+      }
+      for(i = 0; i < points; i += n) {
+        fill(channel, buffer, 1, file);
+        n = Math.min(points - i, buffer.remaining());
+        buffer.get(result.colorIndices, i, n);
+      }
+      readFloats(channel, buffer, result.xs, points, file);
+      readFloats(channel, buffer, result.ys, points, file);
+
+      for(i = 1; i < frames; i++) {
+        result.offsets[i] = result.offsets[i-1] + result.counts[i-1];
+      }
+
+      result.numFrames = result.frameGap = frames;
+      result.numPoints = result.pointGap = points;
+      result.frameGapSize = result.times.length - frames;
+      result.pointGapSize = result.xs.length - points;
+    } finally {
+      channel.close();
+    }
+
+    return result;
+  }
+
+  /**
+   * Reads a column of floats through a buffer.
+   * @param channel the channel to read from
+   * @param buffer the buffer to read through
+   * @param dst the array to read into
+   * @param n the number of floats to read
+   * @param file the file being read, for error messages
+   * @throws IOException if the channel could not be read
+   */
+  private static void readFloats(FileChannel channel, ByteBuffer buffer,
+    float[] dst, int n, File file) throws IOException
+  {
+    int count;
+
+    for(int i = 0; i < n; i += count) {
+      fill(channel, buffer, 4, file);
+      count = Math.min(n - i, buffer.remaining()/4);
+      buffer.asFloatBuffer().get(dst, i, count);
+      buffer.position(buffer.position() + 4*count);
+    }
+  }
+
+  /**
+   * Refills a buffer once it is nearly empty.
+   * @param channel the channel to read from
+   * @param buffer the buffer to fill
+   * @param minRemaining the number of bytes below which the buffer is
+   *   refilled
+   * @param file the file being read, for error messages
+   * @throws IOException if the channel could not be read or ended early
+   */
+  private static void fill(FileChannel channel, ByteBuffer buffer,
+    int minRemaining, File file) throws IOException
+  {
+    if(buffer.remaining() < minRemaining) {
+      buffer.compact();
+      while(buffer.position() < minRemaining) {
+        if(channel.read(buffer) < 0) {
+          throw new IOException("truncated point file: " + file.getPath());
+        }
+      }
+      buffer.flip();
+    }
+  }
+
+  /**
+   * Converts frames in the legacy JSON format, which maps "%.7f" time stamps
+   *   to hexadecimal colors to point indices to xy coordinates. The legacy
+   *   format has no strides, so every frame is assumed to have been analyzed.
+   * @param json the legacy JSONObject
+   * @return a new FramePointStore containing the frames
+   */
+  static FramePointStore fromJSON(JSONObject json) {
+    FramePointStore result = new FramePointStore();
+    HashMap<Integer, List<float[]>> colorMap = new HashMap<>();
+    TreeMap<Float, String> keys = new TreeMap<>();
+    Iterator<?> jsonIter = json.keyIterator();
+    Iterator<?> colorsIter, blobsIter;
+    JSONObject jsonColors, jsonBlobs, jsonCoords;
+    String keyString, tmpString;
+    List<float[]> pointList;
+
+    //frames are appended in time order
+    while(jsonIter.hasNext()) {
+      keyString = (String)jsonIter.next();
+      keys.put(Float.parseFloat(keyString), keyString);
+    }
+
+    for(Map.Entry<Float, String> key : keys.entrySet()) {
+      jsonColors = json.getJSONObject(key.getValue());
+      colorMap.clear();
+
+      colorsIter = jsonColors.keyIterator();
+      while(colorsIter.hasNext()) {
+        tmpString = (String)colorsIter.next();
+        jsonBlobs = jsonColors.getJSONObject(tmpString);
+        pointList = new ArrayList<>(jsonBlobs.size());
+
+        blobsIter = jsonBlobs.keyIterator();
+        while(blobsIter.hasNext()) {
+          jsonCoords = jsonBlobs.getJSONObject((String)blobsIter.next());
+
+          pointList.add(new float[] {
+            jsonCoords.getFloat("x"),
+            jsonCoords.getFloat("y")
+          });
+        }
+
+        colorMap.put((int)Long.parseLong(tmpString, 16), pointList);
+      }
+
+      result.put(key.getKey(), 1, colorMap);
+    }
+
+    return result;
+  }
+}
@@ -0,0 +1,72 @@
+/*
+* BeeTracker
+* Copyright (C) 2016 Kay Choi
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package beetracker;
+
+import java.util.Arrays;
+
+/**
+ * @class GreedyAssignment
+ * @author Kay Choi
+ * @date 19 Oct 16
+ * @description Assigns the closest remaining pair first, until no
+ *   candidate pairs remain.
+ */
+class GreedyAssignment implements AssignmentSolver {
+  private long[] keys = new long[0];
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int[] solve(
+    int numRows,
+    int numCols,
+    CandidatePairs pairs,
+    float unassignedCost
+  ) {
+    int[] result = new int[numRows];
+    boolean[] isColAssigned = new boolean[numCols];
+    int i, index, row, col;
+
+    Arrays.fill(result, -1);
+
+    if(keys.length < pairs.size()) {
+      keys = new long[pairs.size()];
+    }
+
+    //costs are non-negative, so their bit patterns sort in the same order
+    for(i = 0; i < pairs.size(); i++) {
+      keys[i] = ((long)Float.floatToIntBits(pairs.getCost(i)) << 32) | i;
+    }
+    Arrays.sort(keys, 0, pairs.size());
+
+    for(i = 0; i < pairs.size(); i++) {
+      index = (int)keys[i];
+      row = pairs.getRow(index);
+      col = pairs.getCol(index);
+
+      if(result[row] < 0 && !isColAssigned[col]) {
+        result[row] = col;
+        isColAssigned[col] = true;
+      }
+    }
+
+    return result;
+  }
+}
@@ -88,12 +88,12 @@ class MessageDialogue {
               new File(
                 System.getProperty("user.dir") + File.separatorChar +
                 "output" + File.separatorChar + parent.getVideoName() +
-                File.separatorChar + "points.json"
+                File.separatorChar + FramePointStore.fileName
               ).exists()
             ) &&
             saveAnnotationsMessage(parent) == JOptionPane.YES_OPTION
           ) {
-            parent.writeFramePointsToJSON();
+            parent.writeFramePoints();
           }
           parent.stopPlayback();
         }
@@ -169,7 +169,7 @@ class MessageDialogue {
           if(MessageDialogue.saveStatisticsMessage(parent, fileName) ==
             JOptionPane.YES_OPTION)
           {
-            parent.writeFramePointsToJSON();
+            parent.writeFramePoints();
           }
 
           parent.stopPlayback();
@@ -219,7 +219,7 @@ class MessageDialogue {
         '\"';
 
       File pointsFile = new File((new File(filePath))
-        .getParentFile().getAbsolutePath()+File.separatorChar+"points.json");
+        .getParentFile().getAbsolutePath()+File.separatorChar+FramePointStore.fileName);
 
       if(pointsFile.exists()) {
         JOptionPane.showMessageDialog(null, msg);
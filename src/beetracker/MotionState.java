@@ -0,0 +1,158 @@
+/*
+* BeeTracker
+* Copyright (C) 2016 Kay Choi
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package beetracker;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * @class MotionState
+ * @author Kay Choi
+ * @date 19 Oct 16
+ * @description A constant velocity Kalman filter for a single trajectory.
+ *   Both axes share the same noise model, so a single 2x2 covariance
+ *   describes the uncertainty of each axis.
+ */
+class MotionState {
+  private static final float measurementVar = 9f;
+  private static final float accelVar = 4000000f;
+  private static final float initialVelocityVar = 250000f;
+
+  private float x, y, vx, vy;
+  private float p00, p01, p11;
+  private float lastTime;
+
+  /**
+   * Class constructor.
+   * @param x the initial x coordinate, in pixels
+   * @param y the initial y coordinate, in pixels
+   * @param time the time stamp of the initial position, in seconds
+   */
+  MotionState(float x, float y, float time) {
+    this.x = x;
+    this.y = y;
+    vx = vy = 0f;
+    p00 = measurementVar;
+    p01 = 0f;
+    p11 = initialVelocityVar;
+    lastTime = time;
+  }
+
+  /**
+   * Writes the filter state.
+   * @param out the stream to write to
+   * @throws IOException
+   */
+  void write(DataOutputStream out) throws IOException {
+    out.writeFloat(x);
+    out.writeFloat(y);
+    out.writeFloat(vx);
+    out.writeFloat(vy);
+    out.writeFloat(p00);
+    out.writeFloat(p01);
+    out.writeFloat(p11);
+    out.writeFloat(lastTime);
+  }
+
+  /**
+   * Reads a filter state written by write().
+   * @param in the stream to read from
+   * @return the MotionState
+   * @throws IOException
+   */
+  static MotionState read(DataInputStream in) throws IOException {
+    MotionState result = new MotionState(in.readFloat(), in.readFloat(), 0f);
+    result.vx = in.readFloat();
+    result.vy = in.readFloat();
+    result.p00 = in.readFloat();
+    result.p01 = in.readFloat();
+    result.p11 = in.readFloat();
+    result.lastTime = in.readFloat();
+
+    return result;
+  }
+
+  /**
+   * @param time the time stamp, in seconds
+   * @return the predicted x coordinate at the specified time
+   */
+  float predictX(float time) {
+    return x + vx*(time - lastTime);
+  }
+
+  /**
+   * @param time the time stamp, in seconds
+   * @return the predicted y coordinate at the specified time
+   */
+  float predictY(float time) {
+    return y + vy*(time - lastTime);
+  }
+
+  /**
+   * Calculates the gating radius, three standard deviations of the
+   *   predicted measurement.
+   * @param time the time stamp, in seconds
+   * @return the gating radius at the specified time, in pixels
+   */
+  float getGateRadius(float time) {
+    float dt = time - lastTime;
+    float dt2 = dt*dt;
+
+    return 3f*BeeTracker.sqrt(
+      p00 + 2f*dt*p01 + dt2*p11 + .25f*dt2*dt2*accelVar + measurementVar
+    );
+  }
+
+  /**
+   * Corrects the state with a new measurement.
+   * @param mx the measured x coordinate, in pixels
+   * @param my the measured y coordinate, in pixels
+   * @param time the time stamp of the measurement, in seconds
+   */
+  void update(float mx, float my, float time) {
+    float dt = time - lastTime;
+    float dt2 = dt*dt;
+
+    //predict
+    x += vx*dt;
+    y += vy*dt;
+    float q00 = p00 + 2f*dt*p01 + dt2*p11 + .25f*dt2*dt2*accelVar;
+    float q01 = p01 + dt*p11 + .5f*dt2*dt*accelVar;
+    float q11 = p11 + dt2*accelVar;
+
+    //correct
+    float s = q00 + measurementVar;
+    float k0 = q00/s;
+    float k1 = q01/s;
+    float ex = mx - x;
+    float ey = my - y;
+
+    x += k0*ex;
+    y += k0*ey;
+    vx += k1*ex;
+    vy += k1*ey;
+
+    p00 = (1f - k0)*q00;
+    p01 = (1f - k0)*q01;
+    p11 = q11 - k1*q01;
+
+    lastTime = time;
+  }
+}
@@ -0,0 +1,259 @@
+/*
+* BeeTracker
+* Copyright (C) 2016 Kay Choi
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package beetracker;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * @class OscillationFilter
+ * @author Kay Choi
+ * @date 19 Oct 16
+ * @description Streaming motion features over the most recent points of a
+ *   trajectory: the rate of heading reversals, the rate of changes in
+ *   turning direction, and the largest displacement over a short run.
+ *   Points are added and removed by the owning window, and each point is
+ *   processed in constant amortized time.
+ */
+class OscillationFilter {
+  private static final byte reversalFlag = 1, flipFlag = 2;
+  private byte[] flags;
+  private float[] maxValues;
+  private int[] maxSeqs;
+  private int maxHead = 0, maxSize = 0;
+  private int firstSeq = 0, seq = 0;
+  private int numReversals = 0, numFlips = 0;
+  private float lastX, lastY, lastDX, lastDY;
+  private int lastTurn = 0;
+
+  /**
+   * Class constructor.
+   * @param capacity the initial maximum number of points in the window
+   */
+  OscillationFilter(int capacity) {
+    flags = new byte[capacity];
+    maxValues = new float[capacity];
+    maxSeqs = new int[capacity];
+  }
+
+  /**
+   * Removes all points.
+   */
+  void reset() {
+    seq = firstSeq = maxHead = maxSize = 0;
+    numReversals = numFlips = 0;
+    lastDX = lastDY = 0f;
+    lastTurn = 0;
+  }
+
+  /**
+   * Increases the maximum number of points in the window.
+   * @param capacity the new maximum number of points
+   */
+  void grow(int capacity) {
+    byte[] newFlags = new byte[capacity];
+    float[] newValues = new float[capacity];
+    int[] newSeqs = new int[capacity];
+    int i;
+
+    for(i = firstSeq; i < seq; i++) {
+      newFlags[i%capacity] = flags[i%flags.length];
+    }
+    for(i = 0; i < maxSize; i++) {
+      newValues[i] = maxValues[(maxHead + i)%flags.length];
+      newSeqs[i] = maxSeqs[(maxHead + i)%flags.length];
+    }
+
+    flags = newFlags;
+    maxValues = newValues;
+    maxSeqs = newSeqs;
+    maxHead = 0;
+  }
+
+  /**
+   * Removes the oldest point.
+   */
+  void removeOldest() {
+    byte flag = flags[firstSeq%flags.length];
+
+    if((flag & reversalFlag) != 0) {
+      numReversals--;
+    }
+    if((flag & flipFlag) != 0) {
+      numFlips--;
+    }
+
+    firstSeq++;
+
+    //expire runs that ended at the removed point
+    while(maxSize > 0 && maxSeqs[maxHead] < firstSeq) {
+      maxHead = (maxHead + 1)%flags.length;
+      maxSize--;
+    }
+  }
+
+  /**
+   * Adds a point. The window must have room for the point.
+   * @param x the x coordinate in pixels
+   * @param y the y coordinate in pixels
+   * @param runDisplacement the displacement in pixels since the start of
+   *   the run ending at the point, or a negative value if the window does
+   *   not yet hold a full run
+   */
+  void append(float x, float y, float runDisplacement) {
+    int capacity = flags.length;
+    byte flag = 0;
+
+    if(seq > firstSeq) {
+      float dx = x - lastX, dy = y - lastY;
+
+      if(dx != 0f || dy != 0f) {
+        if(dx*lastDX + dy*lastDY < 0f) {
+          flag |= reversalFlag;
+        }
+
+        float cross = lastDX*dy - lastDY*dx;
+        int turn = cross > 0f ? 1 : (cross < 0f ? -1 : 0);
+
+        if(turn != 0) {
+          if(lastTurn != 0 && turn != lastTurn) {
+            flag |= flipFlag;
+          }
+          lastTurn = turn;
+        }
+
+        lastDX = dx;
+        lastDY = dy;
+      }
+    }
+
+    flags[seq%capacity] = flag;
+    if((flag & reversalFlag) != 0) {
+      numReversals++;
+    }
+    if((flag & flipFlag) != 0) {
+      numFlips++;
+    }
+
+    //sliding maximum of the run displacements
+    if(runDisplacement >= 0f) {
+      while(maxSize > 0 &&
+        maxValues[(maxHead + maxSize - 1)%capacity] <= runDisplacement)
+      {
+        maxSize--;
+      }
+
+      maxValues[(maxHead + maxSize)%capacity] = runDisplacement;
+      maxSeqs[(maxHead + maxSize)%capacity] = seq;
+      maxSize++;
+    }
+
+    lastX = x;
+    lastY = y;
+    seq++;
+  }
+
+  /**
+   * Writes the filter state.
+   * @param out the stream to write to
+   * @throws IOException
+   */
+  void write(DataOutputStream out) throws IOException {
+    int i;
+
+    out.writeInt(firstSeq);
+    out.writeInt(seq);
+    for(i = firstSeq; i < seq; i++) {
+      out.writeByte(flags[i%flags.length]);
+    }
+    out.writeInt(numReversals);
+    out.writeInt(numFlips);
+
+    out.writeInt(maxSize);
+    for(i = 0; i < maxSize; i++) {
+      out.writeFloat(maxValues[(maxHead + i)%flags.length]);
+      out.writeInt(maxSeqs[(maxHead + i)%flags.length]);
+    }
+
+    out.writeFloat(lastX);
+    out.writeFloat(lastY);
+    out.writeFloat(lastDX);
+    out.writeFloat(lastDY);
+    out.writeInt(lastTurn);
+  }
+
+  /**
+   * Replaces the filter state with one written by write(). The filter must
+   *   have the capacity of the filter that was written.
+   * @param in the stream to read from
+   * @throws IOException
+   */
+  void read(DataInputStream in) throws IOException {
+    int i;
+
+    firstSeq = in.readInt();
+    seq = in.readInt();
+    for(i = firstSeq; i < seq; i++) {
+      flags[i%flags.length] = in.readByte();
+    }
+    numReversals = in.readInt();
+    numFlips = in.readInt();
+
+    maxHead = 0;
+    maxSize = in.readInt();
+    for(i = 0; i < maxSize; i++) {
+      maxValues[i] = in.readFloat();
+      maxSeqs[i] = in.readInt();
+    }
+
+    lastX = in.readFloat();
+    lastY = in.readFloat();
+    lastDX = in.readFloat();
+    lastDY = in.readFloat();
+    lastTurn = in.readInt();
+  }
+
+  /**
+   * @return the number of steps in the window
+   */
+  private int getStepCount() {
+    return BeeTracker.max(seq - firstSeq - 1, 1);
+  }
+
+  /**
+   * @return the fraction of steps that reverse the previous heading
+   */
+  float getReversalRate() {
+    return ((float)numReversals)/getStepCount();
+  }
+
+  /**
+   * @return the fraction of steps that change the turning direction
+   */
+  float getFlipRate() {
+    return ((float)numFlips)/getStepCount();
+  }
+
+  /**
+   * @return the largest run displacement in the window, in pixels
+   */
+  float getMaxRunDisplacement() {
+    return maxSize > 0 ? maxValues[maxHead] : 0f;
+  }
+}
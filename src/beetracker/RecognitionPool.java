@@ -0,0 +1,218 @@
+/*
+* BeeTracker
+* Copyright (C) 2016 Kay Choi
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package beetracker;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @class RecognitionPool
+ * @author Kay Choi
+ * @date 19 Oct 16
+ * @description Runs waggle recognition on worker threads. A request for
+ *   a trajectory that has not yet been picked up by a worker is replaced
+ *   by a newer request for the same trajectory, as the newer window holds
+ *   the more recent points. Every request that reaches a worker produces a
+ *   result, positive or not, for the tracking thread to poll.
+ */
+class RecognitionPool {
+  private final ExecutorService executor;
+  private final ThreadLocal<ShapeRecognizer> recognizers;
+  private final ConcurrentHashMap<Long, Request> pending =
+    new ConcurrentHashMap<>();
+  private final ConcurrentLinkedQueue<Result> results =
+    new ConcurrentLinkedQueue<>();
+  private final AtomicInteger numActive = new AtomicInteger();
+  private final Object idle = new Object();
+  private volatile int generation = 0;
+
+  /**
+   * A recognition request waiting for a worker.
+   */
+  private static class Request {
+    final float time, startTime;
+    final RecognitionWindow window;
+    final int generation;
+
+    Request(float time, float startTime, RecognitionWindow window,
+      int generation)
+    {
+      this.time = time;
+      this.startTime = startTime;
+      this.window = window;
+      this.generation = generation;
+    }
+  }
+
+  /**
+   * The result of a recognition request.
+   */
+  static class Result {
+    final int color, id;
+    final float time, startTime;
+    final boolean isRecognized;
+    private final int generation;
+
+    Result(int color, int id, float time, float startTime,
+      boolean isRecognized, int generation)
+    {
+      this.color = color;
+      this.id = id;
+      this.time = time;
+      this.startTime = startTime;
+      this.isRecognized = isRecognized;
+      this.generation = generation;
+    }
+  }
+
+  /**
+   * Class constructor.
+   * @param matcher the template matcher shared by all workers
+   */
+  RecognitionPool(final UnistrokeRecognizer matcher) {
+    executor = Executors.newFixedThreadPool(
+      BeeTracker.max(1, Runtime.getRuntime().availableProcessors() - 1),
+      new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable task) {
+          Thread result = new Thread(task, "waggle recognition");
+          result.setDaemon(true);
+
+          return result;
+        }
+      }
+    );
+
+    recognizers = new ThreadLocal<ShapeRecognizer>() {
+      @Override
+      protected ShapeRecognizer initialValue() {
+        return new ShapeRecognizer(matcher);
+      }
+    };
+  }
+
+  /**
+   * Queues a recognition request, replacing any request for the same
+   *   trajectory that has not started yet. Never blocks.
+   * @param color the six-digit hexadecimal RGB value of the trajectory
+   * @param id the ID of the trajectory
+   * @param time the time stamp of the newest point in the window
+   * @param window a snapshot of the recognition window, which must not be
+   *   modified afterwards
+   * @return true if the request was queued, or false if it replaced a
+   *   request that will no longer produce a result
+   */
+  boolean submit(
+    final int color,
+    final int id,
+    float time,
+    RecognitionWindow window
+  ) {
+    final long key = ((long)color << 32) | (id & 0xffffffffL);
+    float startTime = window.size() > 0 ?
+      window.getTime(window.size() - 1) : time;
+
+    numActive.incrementAndGet();
+
+    if(pending.put(key, new Request(time, startTime, window, generation)) !=
+      null)
+    {
+      //coalesced with the request already waiting for a worker
+      numActive.decrementAndGet();
+
+      return false;
+    }
+
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        Request request = pending.remove(key);
+        boolean isRecognized = false;
+
+        try {
+          if(request != null && request.generation == generation) {
+            isRecognized = recognizers.get().recognize(request.window);
+          }
+        } catch(RuntimeException e) {
+          e.printStackTrace(System.err);
+        } finally {
+          if(request != null) {
+            results.offer(new Result(
+              color, id, request.time, request.startTime,
+              isRecognized, request.generation
+            ));
+          }
+
+          if(numActive.decrementAndGet() == 0) {
+            synchronized(idle) {
+              idle.notifyAll();
+            }
+          }
+        }
+      }
+    });
+
+    return true;
+  }
+
+  /**
+   * @return the next result, or null if there are none
+   */
+  Result poll() {
+    Result result;
+
+    //skip results of requests submitted before the last clear
+    do {
+      result = results.poll();
+    } while(result != null && result.generation != generation);
+
+    return result;
+  }
+
+  /**
+   * Waits until all queued requests have been processed.
+   */
+  void await() {
+    synchronized(idle) {
+      while(numActive.get() > 0) {
+        try {
+          idle.wait();
+        } catch(InterruptedException e) {
+          e.printStackTrace(System.err);
+
+          Thread.currentThread().interrupt();
+          break;
+        }
+      }
+    }
+  }
+
+  /**
+   * Discards all queued requests and results, including the results of
+   *   requests that are already running.
+   */
+  void clear() {
+    generation++;
+    pending.clear();
+    results.clear();
+  }
+}
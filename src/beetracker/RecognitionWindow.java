@@ -0,0 +1,444 @@
+/*
+* BeeTracker
+* Copyright (C) 2016 Kay Choi
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package beetracker;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * @class RecognitionWindow
+ * @author Kay Choi
+ * @date 19 Oct 16
+ * @description The points of a trajectory within a fixed duration of its
+ *   newest point, in pixels, kept in a ring buffer along with their time
+ *   stamps and the cumulative path length at each point. New trajectory
+ *   points are appended as they arrive, so any suffix of the window can be
+ *   resampled without walking the whole path. Motion features of the
+ *   window are kept up to date by an OscillationFilter, and its bounding
+ *   box by sliding extrema.
+ */
+class RecognitionWindow {
+  private static final int initialCapacity = 64;
+  private final float duration, runDuration;
+  private int capacity;
+  private float[] xs, ys, times;
+  private double[] lengths;
+  private int start = 0, count = 0;
+  private int runStart = 0;
+  private int consumed = 0;
+  private int xScale = -1, yScale = -1;
+  private int evaluatedCount = 0;
+  private float evaluatedTime = Float.NEGATIVE_INFINITY;
+  private boolean wasLargeEnough = false;
+  private final OscillationFilter filter;
+  private final SlidingExtremum xMin, xMax, yMin, yMax;
+
+  /**
+   * Class constructor.
+   * @param duration the duration of the points to keep, in seconds
+   * @param runDuration the duration over which straight-run displacement
+   *   is measured, in seconds
+   */
+  RecognitionWindow(float duration, float runDuration) {
+    this.duration = duration;
+    this.runDuration = runDuration;
+    capacity = initialCapacity;
+
+    xs = new float[capacity];
+    ys = new float[capacity];
+    times = new float[capacity];
+    lengths = new double[capacity];
+    filter = new OscillationFilter(capacity);
+    xMin = new SlidingExtremum(capacity, false);
+    xMax = new SlidingExtremum(capacity, true);
+    yMin = new SlidingExtremum(capacity, false);
+    yMax = new SlidingExtremum(capacity, true);
+  }
+
+  /**
+   * Copy constructor. The copy holds only the points of the source window,
+   *   without motion features or bounds, and must not be synced.
+   * @param source the window to copy
+   */
+  RecognitionWindow(RecognitionWindow source) {
+    duration = source.duration;
+    runDuration = source.runDuration;
+    capacity = BeeTracker.max(source.count, 2);
+    xs = new float[capacity];
+    ys = new float[capacity];
+    times = new float[capacity];
+    lengths = new double[capacity];
+
+    int index;
+    for(int i = 0; i < source.count; i++) {
+      index = (source.start + i)%source.capacity;
+      xs[i] = source.xs[index];
+      ys[i] = source.ys[index];
+      times[i] = source.times[index];
+      lengths[i] = source.lengths[index];
+    }
+
+    count = source.count;
+    consumed = source.consumed;
+    xScale = source.xScale;
+    yScale = source.yScale;
+    filter = null;
+    xMin = xMax = yMin = yMax = null;
+  }
+
+  /**
+   * Appends the trajectory points added since the last call. The window is
+   *   rebuilt if the frame dimensions have changed or the trajectory has
+   *   been replaced.
+   * @param path the trajectory
+   * @param frameDims the dimensions of the inset frame
+   */
+  void sync(Trajectory path, int[] frameDims) {
+    int total = path.getSpilledCount() + path.size();
+
+    if(frameDims[0] != xScale || frameDims[1] != yScale || total < consumed) {
+      //a schedule read into a new window applies to its first sync
+      if(xScale >= 0) {
+        evaluatedCount = 0;
+      }
+
+      xScale = frameDims[0];
+      yScale = frameDims[1];
+      start = count = runStart = consumed = 0;
+      filter.reset();
+      xMin.reset();
+      xMax.reset();
+      yMin.reset();
+      yMax.reset();
+    }
+
+    if(path.isEmpty()) {
+      return;
+    }
+
+    //skip new points that would leave the window immediately
+    int first = BeeTracker.max(
+      path.size() - (total - consumed),
+      path.findTime(path.getTime(path.size() - 1) - duration)
+    );
+
+    for(int i = BeeTracker.max(first, 0); i < path.size(); i++) {
+      append(path.getX(i)*xScale, path.getY(i)*yScale, path.getTime(i));
+    }
+
+    consumed = total;
+  }
+
+  /**
+   * Appends a point, dropping the points that are older than the window
+   *   duration.
+   * @param x the x coordinate in pixels
+   * @param y the y coordinate in pixels
+   * @param time the time stamp in seconds
+   */
+  private void append(float x, float y, float time) {
+    double length = 0.0;
+
+    if(count > 0) {
+      int last = (start + count - 1)%capacity;
+      length = lengths[last] + BeeTracker.dist(xs[last], ys[last], x, y);
+    }
+
+    while(count > 0 && times[start] < time - duration) {
+      start = (start + 1)%capacity;
+      count--;
+      runStart = BeeTracker.max(runStart - 1, 0);
+      filter.removeOldest();
+      xMin.removeOldest();
+      xMax.removeOldest();
+      yMin.removeOldest();
+      yMax.removeOldest();
+    }
+
+    if(count == capacity) {
+      grow();
+    }
+
+    int index = (start + count)%capacity;
+    xs[index] = x;
+    ys[index] = y;
+    times[index] = time;
+    lengths[index] = length;
+    count++;
+
+    xMin.append(x);
+    xMax.append(x);
+    yMin.append(y);
+    yMax.append(y);
+
+    //the run starts at the newest point at least a run duration old
+    while(runStart + 1 < count &&
+      times[(start + runStart + 1)%capacity] <= time - runDuration)
+    {
+      runStart++;
+    }
+
+    index = (start + runStart)%capacity;
+    filter.append(
+      x,
+      y,
+      times[index] <= time - runDuration ?
+        BeeTracker.dist(xs[index], ys[index], x, y) : -1f
+    );
+  }
+
+  /**
+   * Doubles the capacity of the ring buffer.
+   */
+  private void grow() {
+    int newCapacity = 2*capacity, index;
+    float[] newXs = new float[newCapacity];
+    float[] newYs = new float[newCapacity];
+    float[] newTimes = new float[newCapacity];
+    double[] newLengths = new double[newCapacity];
+
+    for(int i = 0; i < count; i++) {
+      index = (start + i)%capacity;
+      newXs[i] = xs[index];
+      newYs[i] = ys[index];
+      newTimes[i] = times[index];
+      newLengths[i] = lengths[index];
+    }
+
+    xs = newXs;
+    ys = newYs;
+    times = newTimes;
+    lengths = newLengths;
+    capacity = newCapacity;
+    start = 0;
+
+    filter.grow(newCapacity);
+    xMin.grow(newCapacity);
+    xMax.grow(newCapacity);
+    yMin.grow(newCapacity);
+    yMax.grow(newCapacity);
+  }
+
+  /**
+   * @return the number of points in the window
+   */
+  int size() {
+    return count;
+  }
+
+  /**
+   * Records that the window has been checked for gestures.
+   * @param time the time stamp of the check in seconds
+   */
+  void markEvaluated(float time) {
+    evaluatedCount = consumed;
+    evaluatedTime = time;
+    wasLargeEnough = true;
+  }
+
+  /**
+   * Writes when the window was last checked, so that a window rebuilt from
+   *   the same trajectory is checked at the same frames.
+   * @param out the stream to write to
+   * @throws IOException
+   */
+  void writeSchedule(DataOutputStream out) throws IOException {
+    out.writeInt(evaluatedCount);
+    out.writeFloat(evaluatedTime);
+    out.writeBoolean(wasLargeEnough);
+  }
+
+  /**
+   * Reads a schedule written by writeSchedule() into a new window.
+   * @param in the stream to read from
+   * @throws IOException
+   */
+  void readSchedule(DataInputStream in) throws IOException {
+    evaluatedCount = in.readInt();
+    evaluatedTime = in.readFloat();
+    wasLargeEnough = in.readBoolean();
+  }
+
+  /**
+   * @return the number of points added since the window was last checked
+   */
+  int getNewPointCount() {
+    return consumed - evaluatedCount;
+  }
+
+  /**
+   * @return the time stamp of the last check in seconds, or negative
+   *   infinity if the window has not been checked
+   */
+  float getEvaluatedTime() {
+    return evaluatedTime;
+  }
+
+  /**
+   * @return true if the window was large enough to contain a gesture when
+   *   last checked
+   */
+  boolean wasLargeEnough() {
+    return wasLargeEnough;
+  }
+
+  /**
+   * @param minSize the minimum normalized width and aspect-corrected height
+   * @return true if the bounding box of all points in the window exceeds
+   *   the minimum size
+   */
+  boolean isLargeEnough(float minSize) {
+    //pixel extents, both relative to the frame width
+    return count > 1 &&
+      (xMax.get() - xMin.get())/xScale > minSize &&
+      (yMax.get() - yMin.get())/xScale > minSize;
+  }
+
+  /**
+   * @return the fraction of steps in the window that reverse the heading
+   */
+  float getReversalRate() {
+    return filter.getReversalRate();
+  }
+
+  /**
+   * @return the fraction of steps in the window that change the turning
+   *   direction
+   */
+  float getFlipRate() {
+    return filter.getFlipRate();
+  }
+
+  /**
+   * @return the largest straight-run displacement in the window, relative
+   *   to the frame width
+   */
+  float getMaxRunDisplacement() {
+    return filter.getMaxRunDisplacement()/xScale;
+  }
+
+  /**
+   * @return the ratio of the frame height to the frame width
+   */
+  float getAspectRatio() {
+    return ((float)yScale)/xScale;
+  }
+
+  /**
+   * @param age the point age, where 0 is the newest point
+   * @return the normalized x coordinate of the point
+   */
+  float getNormalizedX(int age) {
+    return xs[(start + count - 1 - age)%capacity]/xScale;
+  }
+
+  /**
+   * @param age the point age, where 0 is the newest point
+   * @return the normalized y coordinate of the point
+   */
+  float getNormalizedY(int age) {
+    return ys[(start + count - 1 - age)%capacity]/yScale;
+  }
+
+  /**
+   * @param age the point age, where 0 is the newest point
+   * @return the time stamp of the point in seconds
+   */
+  float getTime(int age) {
+    return times[(start + count - 1 - age)%capacity];
+  }
+
+  /**
+   * Finds the newest points within a duration of the newest point.
+   * @param span the duration in seconds
+   * @return the number of points with a time stamp no more than span
+   *   before the newest point
+   */
+  int countWithin(float span) {
+    float cutoff = getTime(0) - span;
+    int lo = 0, hi = count - 1, mid;
+
+    //find the oldest point at or after the cutoff
+    while(lo < hi) {
+      mid = (lo + hi + 1) >>> 1;
+
+      if(getTime(mid) >= cutoff) {
+        lo = mid;
+      } else {
+        hi = mid - 1;
+      }
+    }
+
+    return lo + 1;
+  }
+
+  /**
+   * Resamples the newest points into equally spaced points along the path,
+   *   newest first.
+   * @param numPoints the number of newest points to resample
+   * @param rate the number of resampled points
+   * @param result the array to store the resampled {x0, y0, x1, y1, ...}
+   *   pixel coordinates in, with at least 2*rate elements
+   * @return false if the points have no length
+   */
+  boolean resample(int numPoints, int rate, float[] result) {
+    int newest = (start + count - 1)%capacity;
+    int oldest = (start + count - numPoints)%capacity;
+    double endLength = lengths[newest];
+    double totalLength = endLength - lengths[oldest];
+
+    if(totalLength <= 0.0) {
+      return false;
+    }
+
+    int lo, hi, mid, age = 0, index, next;
+    double target, t;
+
+    for(int k = 0; k < rate; k++) {
+      target = endLength - totalLength*k/(rate - 1);
+
+      //find the oldest point at or beyond the target length
+      lo = age;
+      hi = numPoints - 1;
+      while(lo < hi) {
+        mid = (lo + hi + 1) >>> 1;
+
+        if(lengths[(start + count - 1 - mid)%capacity] >= target) {
+          lo = mid;
+        } else {
+          hi = mid - 1;
+        }
+      }
+      age = lo;
+
+      index = (start + count - 1 - age)%capacity;
+      if(age < numPoints - 1 && lengths[index] > target) {
+        next = (start + count - 2 - age)%capacity;
+        t = (lengths[index] - target)/(lengths[index] - lengths[next]);
+        result[2*k] = (float)(xs[index] + (xs[next] - xs[index])*t);
+        result[2*k+1] = (float)(ys[index] + (ys[next] - ys[index])*t);
+      } else {
+        result[2*k] = xs[index];
+        result[2*k+1] = ys[index];
+      }
+    }
+
+    return true;
+  }
+}
@@ -0,0 +1,154 @@
+/*
+* BeeTracker
+* Copyright (C) 2016 Kay Choi
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package beetracker;
+
+import java.util.Arrays;
+
+/**
+ * @class RegionMask
+ * @author Kay Choi
+ * @date 19 Oct 16
+ * @description A polygonal region of interest, stored as a run-length list
+ *   of horizontal pixel spans.
+ */
+class RegionMask {
+  private final int width, height;
+  private final int[] rowStarts;
+  private final int[] spans;
+  private final int area;
+
+  /**
+   * Class constructor. Rasterizes a polygon with the even-odd rule.
+   * @param polygon the polygon vertices as normalized {x0, y0, x1, y1, ...}
+   *   coordinates
+   * @param width the width of the images to mask
+   * @param height the height of the images to mask
+   */
+  RegionMask(float[] polygon, int width, int height) {
+    this.width = width;
+    this.height = height;
+
+    int numVertices = polygon.length/2;
+    float[] crossings = new float[numVertices];
+    int[] tmpSpans = new int[2*numVertices*height];
+    rowStarts = new int[height + 1];
+
+    int row, i, j, numCrossings, k = 0, x0, x1, sum = 0;
+    float y, ax, ay, bx, by;
+
+    for(row = 0; row < height; row++) {
+      rowStarts[row] = k;
+      y = (row + .5f)/height;
+
+      //find polygon edges crossing the pixel center line
+      numCrossings = 0;
+      for(i = 0, j = numVertices - 1; i < numVertices; j = i++) {
+        ax = polygon[2*i];
+        ay = polygon[2*i+1];
+        bx = polygon[2*j];
+        by = polygon[2*j+1];
+
+        if((ay <= y && by > y) || (by <= y && ay > y)) {
+          crossings[numCrossings++] = ax + (y - ay)*(bx - ax)/(by - ay);
+        }
+      }
+
+      Arrays.sort(crossings, 0, numCrossings);
+
+      for(i = 0; i + 1 < numCrossings; i += 2) {
+        x0 = BeeTracker.constrain(
+          BeeTracker.ceil(crossings[i]*width - .5f), 0, width);
+        x1 = BeeTracker.constrain(
+          BeeTracker.ceil(crossings[i+1]*width - .5f), 0, width);
+
+        if(x1 > x0) {
+          tmpSpans[k++] = x0;
+          tmpSpans[k++] = x1;
+          sum += x1 - x0;
+        }
+      }
+    }
+
+    rowStarts[height] = k;
+    spans = Arrays.copyOf(tmpSpans, k);
+    area = sum;
+  }
+
+  /**
+   * Clears all pixels outside of the region.
+   * @param pixels the image pixels, with the same dimensions as the mask
+   */
+  void apply(int[] pixels) {
+    apply(pixels, 0, 0, width, height);
+  }
+
+  /**
+   * Clears all pixels outside of the region within a rectangle.
+   * @param pixels the image pixels, with the same dimensions as the mask
+   * @param x0 the left edge of the rectangle, inclusive
+   * @param y0 the top edge of the rectangle, inclusive
+   * @param x1 the right edge of the rectangle, exclusive
+   * @param y1 the bottom edge of the rectangle, exclusive
+   */
+  void apply(int[] pixels, int x0, int y0, int x1, int y1) {
+    int row, i, offset, x;
+
+    for(row = y0; row < y1; row++) {
+      offset = row*width;
+      x = x0;
+
+      for(i = rowStarts[row]; i < rowStarts[row+1] && x < x1; i += 2) {
+        if(spans[i] > x) {
+          Arrays.fill(
+            pixels,
+            offset + x,
+            offset + BeeTracker.min(spans[i], x1),
+            0
+          );
+        }
+        x = BeeTracker.max(x, spans[i+1]);
+      }
+
+      if(x < x1) {
+        Arrays.fill(pixels, offset + x, offset + x1, 0);
+      }
+    }
+  }
+
+  /**
+   * @return the number of pixels within the region
+   */
+  int getArea() {
+    return area;
+  }
+
+  /**
+   * @return the width of the mask in pixels
+   */
+  int getWidth() {
+    return width;
+  }
+
+  /**
+   * @return the height of the mask in pixels
+   */
+  int getHeight() {
+    return height;
+  }
+}
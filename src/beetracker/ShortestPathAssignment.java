@@ -0,0 +1,180 @@
+/*
+* BeeTracker
+* Copyright (C) 2016 Kay Choi
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package beetracker;
+
+import java.util.Arrays;
+
+/**
+ * @class ShortestPathAssignment
+ * @author Kay Choi
+ * @date 19 Oct 16
+ * @description Finds the minimum cost assignment with the shortest
+ *   augmenting path method of Jonker and Volgenant, restricted to the
+ *   candidate pairs. Every row also has a private dummy column with the
+ *   unassigned cost, so a row is only paired when pairing it lowers the
+ *   total cost.
+ */
+class ShortestPathAssignment implements AssignmentSolver {
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int[] solve(
+    int numRows,
+    int numCols,
+    CandidatePairs pairs,
+    float unassignedCost
+  ) {
+    int numAllCols = numCols + numRows;
+    int i, j, k, row, col, sink, numTouched, numScanned, lowestIndex;
+    float minVal, lowest, reduced;
+
+    //compressed sparse rows, dummy column last
+    int[] rowStarts = new int[numRows + 1];
+    for(k = 0; k < pairs.size(); k++) {
+      rowStarts[pairs.getRow(k) + 1]++;
+    }
+    for(i = 0; i < numRows; i++) {
+      rowStarts[i+1] += rowStarts[i] + 1;
+    }
+
+    int[] adjCols = new int[rowStarts[numRows]];
+    float[] adjCosts = new float[rowStarts[numRows]];
+    int[] fill = Arrays.copyOf(rowStarts, numRows);
+    for(k = 0; k < pairs.size(); k++) {
+      row = pairs.getRow(k);
+      adjCols[fill[row]] = pairs.getCol(k);
+      adjCosts[fill[row]] = pairs.getCost(k);
+      fill[row]++;
+    }
+    for(i = 0; i < numRows; i++) {
+      adjCols[fill[i]] = numCols + i;
+      adjCosts[fill[i]] = unassignedCost;
+    }
+
+    float[] u = new float[numRows];
+    float[] v = new float[numAllCols];
+    float[] pathCosts = new float[numAllCols];
+    int[] path = new int[numAllCols];
+    int[] col4row = new int[numRows];
+    int[] row4col = new int[numAllCols];
+    boolean[] isScanned = new boolean[numAllCols];
+    boolean[] isTouched = new boolean[numAllCols];
+    int[] touched = new int[numAllCols];
+    int[] scannedRows = new int[numRows];
+    int[] scannedCols = new int[numAllCols];
+
+    Arrays.fill(col4row, -1);
+    Arrays.fill(row4col, -1);
+    Arrays.fill(pathCosts, Float.POSITIVE_INFINITY);
+
+    for(int curRow = 0; curRow < numRows; curRow++) {
+      minVal = 0f;
+      row = curRow;
+      sink = -1;
+      numTouched = numScanned = 0;
+      int numScannedRows = 0;
+
+      //Dijkstra search over reduced costs until a free column is reached
+      while(sink < 0) {
+        scannedRows[numScannedRows++] = row;
+
+        for(k = rowStarts[row]; k < rowStarts[row+1]; k++) {
+          col = adjCols[k];
+
+          if(!isScanned[col]) {
+            reduced = minVal + adjCosts[k] - u[row] - v[col];
+
+            if(reduced < pathCosts[col]) {
+              path[col] = row;
+              pathCosts[col] = reduced;
+            }
+
+            if(!isTouched[col]) {
+              isTouched[col] = true;
+              touched[numTouched++] = col;
+            }
+          }
+        }
+
+        lowest = Float.POSITIVE_INFINITY;
+        lowestIndex = -1;
+        for(k = 0; k < numTouched; k++) {
+          col = touched[k];
+
+          //prefer free columns on ties to shorten the search
+          if(!isScanned[col] && (pathCosts[col] < lowest ||
+            (pathCosts[col] == lowest && row4col[col] < 0)))
+          {
+            lowest = pathCosts[col];
+            lowestIndex = col;
+          }
+        }
+
+        //the dummy column of curRow is always reachable
+        minVal = lowest;
+        col = lowestIndex;
+        isScanned[col] = true;
+        scannedCols[numScanned++] = col;
+
+        if(row4col[col] < 0) {
+          sink = col;
+        } else {
+          row = row4col[col];
+        }
+      }
+
+      //update dual variables
+      u[curRow] += minVal;
+      for(k = 1; k < numScannedRows; k++) {
+        i = scannedRows[k];
+        u[i] += minVal - pathCosts[col4row[i]];
+      }
+      for(k = 0; k < numScanned; k++) {
+        j = scannedCols[k];
+        v[j] -= minVal - pathCosts[j];
+      }
+
+      //augment along the shortest path
+      col = sink;
+      do {
+        i = path[col];
+        row4col[col] = i;
+        j = col4row[i];
+        col4row[i] = col;
+        col = j;
+      } while(i != curRow);
+
+      for(k = 0; k < numTouched; k++) {
+        col = touched[k];
+        isTouched[col] = false;
+        isScanned[col] = false;
+        pathCosts[col] = Float.POSITIVE_INFINITY;
+      }
+    }
+
+    for(i = 0; i < numRows; i++) {
+      if(col4row[i] >= numCols) {
+        col4row[i] = -1;
+      }
+    }
+
+    return col4row;
+  }
+}
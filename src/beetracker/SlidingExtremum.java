@@ -0,0 +1,115 @@
+/*
+* BeeTracker
+* Copyright (C) 2016 Kay Choi
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package beetracker;
+
+/**
+ * @class SlidingExtremum
+ * @author Kay Choi
+ * @date 19 Oct 16
+ * @description The minimum or maximum of the values in a sliding window,
+ *   kept in a monotonic queue. Values are added at the newest end and
+ *   removed at the oldest end by the owning window, and each value is
+ *   processed in constant amortized time.
+ */
+class SlidingExtremum {
+  private final boolean isMax;
+  private float[] values;
+  private int[] seqs;
+  private int head = 0, size = 0;
+  private int firstSeq = 0, seq = 0;
+
+  /**
+   * Class constructor.
+   * @param capacity the initial maximum number of values in the window
+   * @param isMax true to track the maximum, false to track the minimum
+   */
+  SlidingExtremum(int capacity, boolean isMax) {
+    this.isMax = isMax;
+    values = new float[capacity];
+    seqs = new int[capacity];
+  }
+
+  /**
+   * Removes all values.
+   */
+  void reset() {
+    head = size = firstSeq = seq = 0;
+  }
+
+  /**
+   * Increases the maximum number of values in the window.
+   * @param capacity the new maximum number of values
+   */
+  void grow(int capacity) {
+    float[] newValues = new float[capacity];
+    int[] newSeqs = new int[capacity];
+
+    for(int i = 0; i < size; i++) {
+      newValues[i] = values[(head + i)%values.length];
+      newSeqs[i] = seqs[(head + i)%values.length];
+    }
+
+    values = newValues;
+    seqs = newSeqs;
+    head = 0;
+  }
+
+  /**
+   * Removes the oldest value.
+   */
+  void removeOldest() {
+    firstSeq++;
+
+    if(size > 0 && seqs[head] < firstSeq) {
+      head = (head + 1)%values.length;
+      size--;
+    }
+  }
+
+  /**
+   * Adds a value. The window must have room for the value.
+   * @param value the value
+   */
+  void append(float value) {
+    int capacity = values.length;
+    float last;
+
+    //drop the values that can no longer be the extremum
+    while(size > 0) {
+      last = values[(head + size - 1)%capacity];
+
+      if(isMax ? last > value : last < value) {
+        break;
+      }
+      size--;
+    }
+
+    values[(head + size)%capacity] = value;
+    seqs[(head + size)%capacity] = seq;
+    size++;
+    seq++;
+  }
+
+  /**
+   * @return the extremum of the values in the window, or NaN if the window
+   *   is empty
+   */
+  float get() {
+    return size > 0 ? values[head] : Float.NaN;
+  }
+}
@@ -0,0 +1,119 @@
+/*
+* BeeTracker
+* Copyright (C) 2016 Kay Choi
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package beetracker;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.net.Socket;
+
+/**
+ * @class SocketEventSink
+ * @author Kay Choi
+ * @date 19 Oct 16
+ * @description Streams events as newline-delimited JSON to a TCP listener.
+ *   The connection is opened on the first event and reopened on the next
+ *   event after a failure; events arriving while disconnected are dropped,
+ *   as are events the connection cannot keep up with. A rewind is sent as a
+ *   marker object with the type "rewind", after which the listener should
+ *   discard its events at or after the marker time.
+ */
+class SocketEventSink implements EventSink {
+  private static final long retryInterval = 5000;
+  private final String host;
+  private final int port;
+  private Socket socket = null;
+  private BufferedWriter writer = null;
+  private long lastAttempt = Long.MIN_VALUE;
+
+  /**
+   * Class constructor.
+   * @param host the host name of the listener
+   * @param port the port of the listener
+   */
+  SocketEventSink(String host, int port) {
+    this.host = host;
+    this.port = port;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void rewind(float time) {
+    accept(TrackingEvent.rewind(time));
+  }
+
+  /**
+   * @return false, as a slow listener must not stall tracking
+   */
+  @Override
+  public boolean isDurable() {
+    return false;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void accept(TrackingEvent event) {
+    long now = System.currentTimeMillis();
+
+    if(writer == null && now - lastAttempt >= retryInterval) {
+      lastAttempt = now;
+
+      try {
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        writer = new BufferedWriter(new OutputStreamWriter(
+          socket.getOutputStream(), "UTF-8"));
+      } catch(IOException e) {
+        System.err.println("could not connect to " + host + ":" + port);
+
+        close();
+      }
+    }
+
+    if(writer != null) {
+      try {
+        writer.append(event.toJSON()).append('\n').flush();
+      } catch(IOException e) {
+        e.printStackTrace(System.err);
+
+        close();
+      }
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void close() {
+    if(socket != null) {
+      try {
+        socket.close();
+      } catch(IOException e) {
+        e.printStackTrace(System.err);
+      }
+    }
+
+    socket = null;
+    writer = null;
+  }
+}
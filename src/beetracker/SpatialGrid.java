@@ -0,0 +1,131 @@
+/*
+* BeeTracker
+* Copyright (C) 2016 Kay Choi
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package beetracker;
+
+import java.util.Arrays;
+
+/**
+ * @class SpatialGrid
+ * @author Kay Choi
+ * @date 19 Oct 16
+ * @description A uniform grid of points with cells at least as large as the
+ *   gating radius, so all points within the radius of a location lie in the
+ *   3x3 block of cells around it.
+ */
+class SpatialGrid {
+  private static final int maxCellsPerAxis = 256;
+  private int cols = 0, rows = 0;
+  private float cellSize;
+  private int[] cellStarts = new int[1], indices = new int[0];
+  private int[] cellOf = new int[0];
+
+  /**
+   * Buckets a set of points into the grid.
+   * @param xs the x coordinates of the points
+   * @param ys the y coordinates of the points
+   * @param numPoints the number of points
+   * @param radius the largest gating radius that will be queried
+   * @param width the width of the area containing the points
+   * @param height the height of the area containing the points
+   */
+  void build(
+    float[] xs,
+    float[] ys,
+    int numPoints,
+    float radius,
+    float width,
+    float height
+  ) {
+    int i, cell;
+
+    cellSize = BeeTracker.max(
+      radius,
+      BeeTracker.max(width, height)/maxCellsPerAxis
+    );
+    cols = BeeTracker.max(1, BeeTracker.ceil(width/cellSize));
+    rows = BeeTracker.max(1, BeeTracker.ceil(height/cellSize));
+
+    if(cellStarts.length < cols*rows + 1) {
+      cellStarts = new int[cols*rows + 1];
+    } else {
+      Arrays.fill(cellStarts, 0, cols*rows + 1, 0);
+    }
+
+    if(indices.length < numPoints) {
+      indices = new int[numPoints];
+      cellOf = new int[numPoints];
+    }
+
+    //counting sort of points by cell
+    for(i = 0; i < numPoints; i++) {
+      cell = getCell(xs[i], ys[i]);
+      cellOf[i] = cell;
+      cellStarts[cell + 1]++;
+    }
+
+    for(i = 0; i < cols*rows; i++) {
+      cellStarts[i+1] += cellStarts[i];
+    }
+
+    int[] fill = Arrays.copyOf(cellStarts, cols*rows);
+    for(i = 0; i < numPoints; i++) {
+      indices[fill[cellOf[i]]++] = i;
+    }
+  }
+
+  /**
+   * Retrieves the points in the 3x3 block of cells around a location.
+   * @param x the x coordinate of the location
+   * @param y the y coordinate of the location
+   * @param result the array to store the point indices in; must be able to
+   *   hold all points in the grid
+   * @return the number of point indices stored
+   */
+  int getNeighbors(float x, float y, int[] result) {
+    int cellX = BeeTracker.constrain((int)(x/cellSize), 0, cols - 1);
+    int cellY = BeeTracker.constrain((int)(y/cellSize), 0, rows - 1);
+    int xMin = BeeTracker.max(0, cellX - 1);
+    int xMax = BeeTracker.min(cols - 1, cellX + 1);
+    int yMin = BeeTracker.max(0, cellY - 1);
+    int yMax = BeeTracker.min(rows - 1, cellY + 1);
+    int i, j, k, cell, count = 0;
+
+    for(j = yMin; j <= yMax; j++) {
+      for(i = xMin; i <= xMax; i++) {
+        cell = j*cols + i;
+
+        for(k = cellStarts[cell]; k < cellStarts[cell+1]; k++) {
+          result[count++] = indices[k];
+        }
+      }
+    }
+
+    return count;
+  }
+
+  /**
+   * @param x the x coordinate
+   * @param y the y coordinate
+   * @return the index of the cell containing the coordinates
+   */
+  private int getCell(float x, float y) {
+    return BeeTracker.constrain((int)(y/cellSize), 0, rows - 1)*cols +
+      BeeTracker.constrain((int)(x/cellSize), 0, cols - 1);
+  }
+}
@@ -0,0 +1,432 @@
+/*
+* BeeTracker
+* Copyright (C) 2016 Kay Choi
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package beetracker;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import processing.data.IntList;
+
+/**
+ * @class StrideBenchmark
+ * @author Kay Choi
+ * @date 19 Oct 16
+ * @description Measures event accuracy against the analysis stride on
+ *   synthetic bees with known events. Each stride feeds every Nth frame of
+ *   the same simulated videos through TrackingUtils, once with bees
+ *   crossing the exit and once with bees dancing the waggle templates, and
+ *   compares the ingress, egress and waggle events found with the true
+ *   ones. Run its main method with the Processing core library and the
+ *   sketch folder, which holds the data folder, on the class path.
+ */
+class StrideBenchmark {
+  private static final int[] strides = {1, 2, 3, 4, 5, 8, 12};
+  private static final int numBees = 40;
+  private static final int numDancers = 24;
+  private static final int numWalkers = 24;
+  private static final int fps = 30;
+  private static final float duration = 120f;
+  private static final int color = 0xff0000;
+  private static final int[] movieDims = {640, 480};
+  private static final int[] frameOffset = {0, 0};
+  private static final float[] exitCenterXY = {320f, 240f};
+  private static final float[] exitAxes = {60f, 40f};
+  private static final float speed = 60f;
+  private static final float turnRate = 3f;
+  private static final float noise = 1.5f;
+  private static final float dropRate = .03f;
+  private static final float danceSize = 60f;
+  private static final float minDanceTime = 2f, maxDanceTime = 3f;
+  private static final float eventTolerance = .25f;
+
+  /**
+   * Runs the measurement.
+   * @param args unused
+   */
+  public static void main(String[] args) {
+    BeeTracker parent = new BeeTracker();
+    parent.fps = fps;
+    //the sketch is never started, so resolve its folder before loading
+    parent.sketchPath();
+
+    TrackingUtils tu = new TrackingUtils(parent);
+    UnistrokeRecognizer matcher = ShapeRecognizer.loadTemplates(parent);
+    int numFrames = (int)(duration*fps);
+    List<float[]> dances = new ArrayList<>();
+    float[][][] walks = simulate(new Random(1), numFrames, numBees, null,
+      null);
+    float[][][] dancing = simulate(new Random(1), numFrames,
+      numDancers + numWalkers, matcher, dances);
+    List<float[]> exitTruth = getExitEvents(walks);
+    EventLog events;
+    float[] exitScores, waggleScores;
+
+    if(matcher.getTemplateCount() == 0) {
+      System.err.println("no waggle templates loaded");
+      System.exit(1);
+    }
+
+    System.out.println("stride, analyzed fps, exit events found %, " +
+      "spurious exit events %, mean exit event delay ms, dances found %, " +
+      "spurious waggle events");
+
+    for(int stride : strides) {
+      events = track(tu, walks, stride, false, new Random(2));
+      exitScores = matchEvents(exitTruth, events, stride);
+
+      events = track(tu, dancing, stride, true, new Random(2));
+      waggleScores = matchDances(dances, events, stride);
+
+      System.out.println(String.format(
+        Locale.ROOT,
+        "%d, %.1f, %.1f, %.1f, %.0f, %.1f, %.0f",
+        stride,
+        ((float)fps)/stride,
+        100f*exitScores[0]/exitTruth.size(),
+        100f*exitScores[1]/Math.max(1f, exitScores[0] + exitScores[1]),
+        1000f*exitScores[2],
+        100f*waggleScores[0]/dances.size(),
+        waggleScores[1]
+      ));
+    }
+
+    System.exit(0);
+  }
+
+  /**
+   * Simulates bees walking with random turns, reflecting off the frame
+   *   edges. If templates are given, each of the first numDancers bees
+   *   stops once to trace a template, ending where it started.
+   * @param random the random number generator
+   * @param numFrames the number of video frames
+   * @param numSimulated the number of bees
+   * @param matcher the templates to dance, or null
+   * @param dances the list to add a {start, end} time per dance to, or null
+   * @return the true xy coordinates of each bee in each frame, in pixels
+   */
+  private static float[][][] simulate(
+    Random random,
+    int numFrames,
+    int numSimulated,
+    UnistrokeRecognizer matcher,
+    List<float[]> dances
+  ) {
+    float[][][] result = new float[numFrames][numSimulated][2];
+    float[] xs = new float[numSimulated], ys = new float[numSimulated];
+    float[] headings = new float[numSimulated];
+    int[] danceStarts = new int[numSimulated];
+    int[] danceEnds = new int[numSimulated];
+    float[][] shapes = new float[numSimulated][];
+    float dt = 1f/fps;
+    int frame, i, k;
+    float t;
+
+    for(i = 0; i < numSimulated; i++) {
+      xs[i] = random.nextFloat()*movieDims[0];
+      ys[i] = random.nextFloat()*movieDims[1];
+      headings[i] = random.nextFloat()*BeeTracker.TWO_PI;
+      danceStarts[i] = danceEnds[i] = -1;
+
+      if(matcher != null && i < numDancers) {
+        danceStarts[i] = (int)((.1f + .7f*random.nextFloat())*numFrames);
+        danceEnds[i] = danceStarts[i] + (int)((minDanceTime +
+          (maxDanceTime - minDanceTime)*random.nextFloat())*fps);
+        shapes[i] = getDanceShape(
+          matcher.getTemplatePoints(random.nextInt(
+            matcher.getTemplateCount())),
+          (random.nextFloat() - .5f)*.6f
+        );
+
+        dances.add(new float[] {((float)danceStarts[i])/fps,
+          ((float)danceEnds[i])/fps});
+      }
+    }
+
+    for(frame = 0; frame < numFrames; frame++) {
+      for(i = 0; i < numSimulated; i++) {
+        if(frame >= danceStarts[i] && frame < danceEnds[i]) {
+          //trace the template from its last point, as recognition windows
+          //  list the newest point first
+          t = ((float)(frame - danceStarts[i]))/
+            (danceEnds[i] - danceStarts[i] - 1)*(shapes[i].length/2 - 1);
+          k = Math.min((int)t, shapes[i].length/2 - 2);
+          t -= k;
+          k = shapes[i].length/2 - 1 - k;
+
+          result[frame][i][0] = xs[i] + shapes[i][2*k] +
+            (shapes[i][2*k - 2] - shapes[i][2*k])*t;
+          result[frame][i][1] = ys[i] + shapes[i][2*k + 1] +
+            (shapes[i][2*k - 1] - shapes[i][2*k + 1])*t;
+
+          continue;
+        }
+
+        headings[i] += (float)random.nextGaussian()*turnRate*
+          BeeTracker.sqrt(dt);
+        xs[i] += speed*dt*BeeTracker.cos(headings[i]);
+        ys[i] += speed*dt*BeeTracker.sin(headings[i]);
+
+        if(xs[i] < 0f || xs[i] > movieDims[0]) {
+          headings[i] = BeeTracker.PI - headings[i];
+          xs[i] = BeeTracker.constrain(xs[i], 0f, movieDims[0]);
+        }
+        if(ys[i] < 0f || ys[i] > movieDims[1]) {
+          headings[i] = -headings[i];
+          ys[i] = BeeTracker.constrain(ys[i], 0f, movieDims[1]);
+        }
+
+        result[frame][i][0] = xs[i];
+        result[frame][i][1] = ys[i];
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Scales and rotates a normalized template into a dance path in pixels,
+   *   relative to the last point of the template.
+   * @param points the normalized template points
+   * @param angle the rotation in radians
+   * @return the dance path as {x0, y0, x1, y1, ...}
+   */
+  private static float[] getDanceShape(float[] points, float angle) {
+    float[] result = new float[points.length];
+    float xMin = Float.MAX_VALUE, xMax = -Float.MAX_VALUE;
+    float cos = BeeTracker.cos(angle), sin = BeeTracker.sin(angle);
+    float x0 = points[points.length - 2], y0 = points[points.length - 1];
+    float scale, x, y;
+    int i;
+
+    for(i = 0; i < points.length; i += 2) {
+      xMin = Math.min(xMin, points[i]);
+      xMax = Math.max(xMax, points[i]);
+    }
+    scale = danceSize/Math.max(xMax - xMin, 1e-6f);
+
+    for(i = 0; i < points.length; i += 2) {
+      x = (points[i] - x0)*scale;
+      y = (points[i+1] - y0)*scale;
+      result[i] = x*cos - y*sin;
+      result[i+1] = x*sin + y*cos;
+    }
+
+    return result;
+  }
+
+  /**
+   * Finds the true ingress and egress events, using the same bands around
+   *   the exit boundary as TrackingUtils. A bee that starts inside the exit
+   *   is not counted as entering it.
+   * @param truth the true coordinates of each bee in each frame
+   * @return the events as {time, type}, in time order
+   */
+  private static List<float[]> getExitEvents(float[][][] truth) {
+    List<float[]> result = new ArrayList<>();
+    boolean[] isInside = new boolean[truth[0].length];
+    int frame, i;
+
+    for(i = 0; i < isInside.length; i++) {
+      isInside[i] = isInExit(truth[0][i], 1f);
+    }
+
+    for(frame = 1; frame < truth.length; frame++) {
+      for(i = 0; i < isInside.length; i++) {
+        if(isInside[i] != isInExit(
+          truth[frame][i],
+          isInside[i] ? TrackingUtils.exitOuterBand :
+            TrackingUtils.exitInnerBand
+        )) {
+          isInside[i] = !isInside[i];
+          result.add(new float[] {((float)frame)/fps, isInside[i] ? 0 : 1});
+        }
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * @param point the xy coordinates of a point in pixels
+   * @param scale the scale factor applied to the exit axes
+   * @return true if the point is within the scaled exit
+   */
+  private static boolean isInExit(float[] point, float scale) {
+    float a = (point[0] - exitCenterXY[0])/exitAxes[0];
+    float b = (point[1] - exitCenterXY[1])/exitAxes[1];
+
+    return a*a + b*b <= scale*scale;
+  }
+
+  /**
+   * Tracks every Nth frame of a simulation with noisy, occasionally missing
+   *   detections.
+   * @param tu the TrackingUtils to track with, which is reset first
+   * @param truth the true coordinates of each bee in each frame
+   * @param stride the number of video frames per analyzed frame
+   * @param waggleMode true to detect waggle dances instead of ingress and
+   *   egress
+   * @param random the random number generator for detection noise
+   * @return the events found
+   */
+  private static EventLog track(
+    TrackingUtils tu,
+    float[][][] truth,
+    int stride,
+    boolean waggleMode,
+    Random random
+  ) {
+    HashMap<Integer, List<float[]>> pointMap = new HashMap<>();
+    List<float[]> points = new ArrayList<>();
+    IntList colors = new IntList();
+    int frame, i;
+
+    tu.init();
+    colors.append(color);
+    tu.setColors(colors);
+    tu.setEventType(waggleMode);
+    tu.setAnalysisStride(stride);
+    tu.setLive(false);
+    pointMap.put(color, points);
+
+    for(frame = 0; frame < truth.length; frame += stride) {
+      points.clear();
+
+      for(i = 0; i < truth[frame].length; i++) {
+        if(random.nextFloat() >= dropRate) {
+          points.add(new float[] {
+            (truth[frame][i][0] + (float)random.nextGaussian()*noise)/
+              movieDims[0],
+            (truth[frame][i][1] + (float)random.nextGaussian()*noise)/
+              movieDims[1]
+          });
+        }
+      }
+
+      tu.trackCentroids(
+        pointMap,
+        movieDims, frameOffset,
+        exitCenterXY, exitAxes,
+        movieDims, frameOffset,
+        ((float)frame)/fps,
+        duration
+      );
+    }
+
+    if(waggleMode) {
+      tu.finishRecognition(movieDims);
+    }
+
+    return tu.getEvents();
+  }
+
+  /**
+   * Pairs each found ingress or egress event with the earliest unpaired true
+   *   event of the same type that it precedes by no more than a tolerance,
+   *   as detection noise can cross the exit boundary early, and follows by
+   *   no more than the stride plus the tolerance.
+   * @param truth the true events as {time, type}, in time order
+   * @param events the events found
+   * @param stride the number of video frames per analyzed frame
+   * @return the number of paired events, the number of unpaired events
+   *   found, and the mean delay of the paired events in seconds
+   */
+  private static float[] matchEvents(
+    List<float[]> truth,
+    EventLog events,
+    int stride
+  ) {
+    boolean[] isPaired = new boolean[truth.size()];
+    float maxDelay = ((float)stride)/fps + eventTolerance;
+    float time, delay = 0f;
+    int i, j, numPaired = 0, numUnpaired = 0;
+
+    for(i = 0; i < events.size(); i++) {
+      time = events.getTime(i);
+
+      for(j = 0; j < truth.size(); j++) {
+        if(
+          !isPaired[j] &&
+          truth.get(j)[1] == events.getType(i) &&
+          time - truth.get(j)[0] >= -eventTolerance &&
+          time - truth.get(j)[0] <= maxDelay
+        ) {
+          break;
+        }
+      }
+
+      if(j < truth.size()) {
+        isPaired[j] = true;
+        delay += time - truth.get(j)[0];
+        numPaired++;
+      } else {
+        numUnpaired++;
+      }
+    }
+
+    return new float[] {numPaired, numUnpaired, delay/Math.max(1, numPaired)};
+  }
+
+  /**
+   * Pairs each found waggle event with an unpaired dance in progress or
+   *   ended no more than the stride plus a tolerance before it.
+   * @param dances the true dances as {start, end}
+   * @param events the events found
+   * @param stride the number of video frames per analyzed frame
+   * @return the number of paired and unpaired waggle events
+   */
+  private static float[] matchDances(
+    List<float[]> dances,
+    EventLog events,
+    int stride
+  ) {
+    boolean[] isPaired = new boolean[dances.size()];
+    float maxDelay = ((float)stride)/fps + eventTolerance;
+    float time;
+    int i, j, numPaired = 0, numUnpaired = 0;
+
+    for(i = 0; i < events.size(); i++) {
+      if(events.getType(i) != 2) {
+        continue;
+      }
+      time = events.getTime(i);
+
+      for(j = 0; j < dances.size(); j++) {
+        if(
+          !isPaired[j] &&
+          time >= dances.get(j)[0] &&
+          time - dances.get(j)[1] <= maxDelay
+        ) {
+          break;
+        }
+      }
+
+      if(j < dances.size()) {
+        isPaired[j] = true;
+        numPaired++;
+      } else {
+        numUnpaired++;
+      }
+    }
+
+    return new float[] {numPaired, numUnpaired};
+  }
+}
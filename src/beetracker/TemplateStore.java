@@ -0,0 +1,281 @@
+/*
+* BeeTracker
+* Copyright (C) 2016 Kay Choi
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package beetracker;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+import processing.data.FloatList;
+import processing.data.JSONArray;
+import processing.data.JSONObject;
+
+/**
+ * @class TemplateStore
+ * @author Kay Choi
+ * @date 19 Oct 16
+ * @description Loads the gesture templates listed in the template manifest.
+ *   Compiled templates are cached in a binary file in the output directory,
+ *   which is used for as long as its checksum of the manifest, the template
+ *   files and the resampling rate is current.
+ */
+class TemplateStore {
+  private static final String directory = "paths/";
+  private static final String manifestName = "templates.json";
+  private static final String cacheName = "templates.bin";
+  private static final int cacheVersion = 1;
+
+  /**
+   * Loads the enabled templates in the template manifest.
+   * @param root the BeeTracker object
+   * @param numPoints the number of points to resample templates to
+   * @param defaultMinScore the minimum score for templates without one
+   * @return a UnistrokeRecognizer containing the templates
+   */
+  static UnistrokeRecognizer load(
+    BeeTracker root,
+    int numPoints,
+    float defaultMinScore
+  ) {
+    UnistrokeRecognizer result = new UnistrokeRecognizer(numPoints);
+    byte[] manifestBytes = root.loadBytes(directory + manifestName);
+
+    if(manifestBytes == null) {
+      System.err.println("template manifest not found");
+
+      return result;
+    }
+
+    JSONArray entries = JSONObject.parse(
+      new String(manifestBytes, StandardCharsets.UTF_8)
+    ).getJSONArray("templates");
+    String[] names = new String[entries.size()];
+    float[] minScores = new float[entries.size()];
+    byte[][] files = new byte[entries.size()][];
+    JSONObject entry;
+    CRC32 crc = new CRC32();
+    int i, count = 0;
+
+    crc.update(manifestBytes);
+
+    for(i = 0; i < entries.size(); i++) {
+      entry = entries.getJSONObject(i);
+
+      if(!entry.getBoolean("enabled", true)) {
+        continue;
+      }
+
+      files[count] = root.loadBytes(directory + entry.getString("file"));
+
+      if(files[count] == null) {
+        System.err.println("template not found: " + entry.getString("file"));
+
+        continue;
+      }
+
+      names[count] = entry.getString("name");
+      minScores[count] = entry.getFloat("minScore", defaultMinScore);
+      crc.update(files[count]);
+
+      count++;
+    }
+
+    crc.update(numPoints);
+
+    File cache = new File(System.getProperty("user.dir") +
+      File.separatorChar + "output" + File.separatorChar + cacheName);
+
+    if(!readCache(cache, crc.getValue(), count, result)) {
+      result = new UnistrokeRecognizer(numPoints);
+
+      for(i = 0; i < count; i++) {
+        addTemplate(names[i], files[i], minScores[i], result);
+      }
+
+      writeCache(cache, crc.getValue(), result);
+
+      if(BeeTracker.debug) {
+        System.out.println("compiled " + result.getTemplateCount() +
+          " template(s)");
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Reads compiled templates from the cache file.
+   * @param cache the cache file
+   * @param checksum the expected checksum of the template sources
+   * @param count the expected number of templates
+   * @param matcher the UnistrokeRecognizer to add the templates to
+   * @return false if the cache is missing or out of date
+   */
+  private static boolean readCache(
+    File cache,
+    long checksum,
+    int count,
+    UnistrokeRecognizer matcher
+  ) {
+    if(!cache.exists()) {
+      return false;
+    }
+
+    boolean result = false;
+    DataInputStream in = null;
+    int numPoints = matcher.getNumPoints(), i, j;
+    String name;
+    float minScore;
+    float[] points;
+
+    try {
+      in = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(cache)));
+
+      if(
+        in.readInt() == cacheVersion &&
+        in.readInt() == numPoints &&
+        in.readLong() == checksum &&
+        in.readInt() == count
+      ) {
+        for(i = 0; i < count; i++) {
+          name = in.readUTF();
+          minScore = in.readFloat();
+          points = new float[2*numPoints];
+
+          for(j = 0; j < points.length; j++) {
+            points[j] = in.readFloat();
+          }
+
+          matcher.addNormalizedTemplate(name, points, minScore);
+        }
+
+        result = true;
+      }
+    } catch(IOException ex) {
+      ex.printStackTrace(System.err);
+    } finally {
+      if(in != null) {
+        try {
+          in.close();
+        } catch(IOException ex) {
+          ex.printStackTrace(System.err);
+        }
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Writes compiled templates to the cache file.
+   * @param cache the cache file
+   * @param checksum the checksum of the template sources
+   * @param matcher the UnistrokeRecognizer containing the templates
+   */
+  private static void writeCache(
+    File cache,
+    long checksum,
+    UnistrokeRecognizer matcher
+  ) {
+    DataOutputStream out = null;
+    float[] points;
+
+    try {
+      cache.getParentFile().mkdirs();
+      out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(cache)));
+
+      out.writeInt(cacheVersion);
+      out.writeInt(matcher.getNumPoints());
+      out.writeLong(checksum);
+      out.writeInt(matcher.getTemplateCount());
+
+      for(int i = 0; i < matcher.getTemplateCount(); i++) {
+        out.writeUTF(matcher.getTemplateName(i));
+        out.writeFloat(matcher.getTemplateMinScore(i));
+
+        points = matcher.getTemplatePoints(i);
+        for(float value : points) {
+          out.writeFloat(value);
+        }
+      }
+    } catch(IOException ex) {
+      ex.printStackTrace(System.err);
+    } finally {
+      if(out != null) {
+        try {
+          out.close();
+        } catch(IOException ex) {
+          ex.printStackTrace(System.err);
+        }
+      }
+    }
+  }
+
+  /**
+   * Parses a gesture template file.
+   * @param name the name of the template
+   * @param file the contents of the template file
+   * @param minScore the minimum score for a match
+   * @param matcher the UnistrokeRecognizer to add the template to
+   */
+  private static void addTemplate(
+    String name,
+    byte[] file,
+    float minScore,
+    UnistrokeRecognizer matcher
+  ) {
+    FloatList path = new FloatList();
+    BufferedReader reader = new BufferedReader(new InputStreamReader(
+      new ByteArrayInputStream(file), StandardCharsets.UTF_8));
+    String line;
+    String[] split;
+
+    try {
+      while((line = reader.readLine()) != null) {
+        if(line.startsWith("<Point")) {
+          split = line.split("\\\"");
+          path.append((int)Float.parseFloat(split[1]));
+          path.append((int)Float.parseFloat(split[3]));
+        }
+      }
+    } catch(IOException ex) {
+      ex.printStackTrace(System.err);
+    }
+
+    //candidates are resampled newest point first
+    float[] array = new float[path.size()];
+    for(int i = 0; i < array.length; i += 2) {
+      array[i] = path.get(array.length - 2 - i);
+      array[i+1] = path.get(array.length - 1 - i);
+    }
+    matcher.addTemplate(name, array, array.length/2, minScore);
+  }
+}
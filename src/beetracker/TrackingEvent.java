@@ -0,0 +1,129 @@
+/*
+* BeeTracker
+* Copyright (C) 2016 Kay Choi
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package beetracker;
+
+import java.util.Locale;
+
+/**
+ * @class TrackingEvent
+ * @author Kay Choi
+ * @date 19 Oct 16
+ * @description An immutable record of a single ingress, egress or waggle
+ *   event, or of a rewind marker withdrawing earlier events. Events are
+ *   equal if all of their fields are equal.
+ */
+final class TrackingEvent {
+  static final int rewindType = -1;
+  final float time;
+  final int id;
+  final int color;
+  final int type;
+
+  /**
+   * Class constructor.
+   * @param time the time stamp of the event in seconds
+   * @param id the ID of the trajectory
+   * @param color the six-digit hexadecimal RGB value of the trajectory
+   * @param type the index of the event type in EventLog.typeNames
+   */
+  TrackingEvent(float time, int id, int color, int type) {
+    this.time = time;
+    this.id = id;
+    this.color = color;
+    this.type = type;
+  }
+
+  /**
+   * Creates a rewind marker. Sinks receiving the marker should withdraw all
+   *   events at or after the time stamp, as tracking has been restored to
+   *   that time and the events will be published again.
+   * @param time the time stamp in seconds
+   * @return the marker
+   */
+  static TrackingEvent rewind(float time) {
+    return new TrackingEvent(time, -1, 0, rewindType);
+  }
+
+  /**
+   * @return true if the event is a rewind marker
+   */
+  boolean isRewind() {
+    return type == rewindType;
+  }
+
+  /**
+   * @return the name of the event type
+   */
+  String getTypeName() {
+    return isRewind() ? "rewind" : EventLog.typeNames[type];
+  }
+
+  /**
+   * @return the event as a comma-separated line, without a line terminator
+   */
+  String toCSV() {
+    if(isRewind()) {
+      return String.format(Locale.ROOT, "%.2f,,,%s", time, getTypeName());
+    }
+
+    return String.format(Locale.ROOT, "%.2f,%d,#%06x,%s", time, id, color,
+      getTypeName());
+  }
+
+  /**
+   * @return the event as a single-line JSON object
+   */
+  String toJSON() {
+    if(isRewind()) {
+      return String.format(Locale.ROOT, "{\"time\":%.2f,\"type\":\"%s\"}",
+        time, getTypeName());
+    }
+
+    return String.format(
+      Locale.ROOT,
+      "{\"time\":%.2f,\"id\":%d,\"color\":\"#%06x\",\"type\":\"%s\"}",
+      time,
+      id,
+      color,
+      getTypeName()
+    );
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean equals(Object obj) {
+    if(!(obj instanceof TrackingEvent)) {
+      return false;
+    }
+
+    TrackingEvent other = (TrackingEvent)obj;
+
+    return Float.compare(time, other.time) == 0 && id == other.id &&
+      color == other.color && type == other.type;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int hashCode() {
+    return ((Float.floatToIntBits(time) * 31 + id) * 31 + color) * 31 + type;
+  }
+}
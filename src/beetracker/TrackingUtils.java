@@ -18,12 +18,21 @@
 
 package beetracker;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Stack;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
 
 import processing.core.PGraphics;
 import processing.data.FloatList;
@@ -39,34 +48,89 @@ class TrackingUtils {
   private BeeTracker parent;
   private int currentID;
   private IntList colors;
-  private static final float distThreshold = .25f;
+  static final float distThreshold = .25f;
+  private static final float windowMarginRatio = .04f;
+  static final float minGateRatio = .02f;
   private boolean waggleMode = false;
-  private final ShapeRecognizer rec;
-  private static final float timeOutThreshold = 1.25f;
-  private static final String eventTypes[] = {"ingress","egress","waggle"};
+  private int analysisStride = 1;
+  private float historyWindow = 0f;
+  private float[] pageXs = null, pageYs = null, pageTimes = null;
+  private static final int pageSize = 1024;
+  private static final Pattern spillFileName =
+    Pattern.compile("[0-9a-f]{6}-\\d{1,9}\\.bin");
+  private boolean optimalAssignment = true;
+  private final UnistrokeRecognizer matcher;
+  private final RecognitionPool recognitionPool;
+  private static final int recognitionBudget = 8;
+  private static final float recognitionInterval = 1f/3f;
+  private final List<ColorTracker> dueTrackers = new ArrayList<>();
+  private final IntList dueIndices = new IntList();
+  private long numPrefilterPassed = 0, numPrefilterRejected = 0;
+  private final ForkJoinPool pool = new ForkJoinPool();
+  static final float timeOutThreshold = 1.25f;
+  static final float exitInnerBand = .9f, exitOuterBand = 1.1f;
+  private static final String eventTypes[] = EventLog.typeNames;
+  private EventLog events;
+  private List<WaggleRun> waggleRuns;
+  private final EventDispatcher dispatcher = new EventDispatcher();
+  private boolean isLive = true;
+  private static final float checkpointInterval = 10f;
+  private static final int maxCheckpoints = 64;
+  private float checkpointSpacing;
+  private FloatList checkpointTimes;
+  private List<byte[]> checkpoints;
 
   private class ColorTracker {
-    List<Deque<float[]>> paths;
+    List<Trajectory> paths;
     List<Boolean> waggleStates;
-    FloatList timeOuts, eventTimes;
+    List<RecognitionWindow> windows;
+    List<MotionState> motions;
+    FloatList timeOuts;
     Stack<float[]> intervals;
     IntList IDs;
-    HashMap<Float, String> eventLabels;
-    HashMap<Float, Integer> eventIDs;
-    FloatList pathStartTimes;
-
-    ColorTracker() {
-      paths = new ArrayList<Deque<float[]>>();
+    List<Boolean> exitStates;
+    final int color;
+    final ShapeRecognizer rec;
+    AssignmentSolver solver;
+    final CandidatePairs pairs = new CandidatePairs();
+    final SpatialGrid grid = new SpatialGrid();
+    float[] newXs = new float[0], newYs = new float[0];
+    float[] trackGates = new float[0];
+    int[] neighbors = new int[0];
+    final List<float[]> unmatchedPoints = new ArrayList<>();
+    final FloatList pendingTimes = new FloatList();
+    final IntList pendingIDs = new IntList();
+    final IntList pendingTypes = new IntList();
+    final HashMap<Integer, WaggleRunDecoder> decoders = new HashMap<>();
+    final List<WaggleRun> pendingRuns = new ArrayList<>();
+    final HashMap<Integer, Integer> numRequests = new HashMap<>();
+    final HashMap<Integer, Trajectory> expiredPaths = new HashMap<>();
+
+    ColorTracker(int color) {
+      this.color = color;
+      rec = new ShapeRecognizer(matcher);
+      solver = createSolver();
+      paths = new ArrayList<>();
       waggleStates = new ArrayList<>();
+      windows = new ArrayList<>();
+      motions = new ArrayList<>();
       timeOuts = new FloatList();
       intervals = new Stack<>();
       intervals.add(new float[]{Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY});
       IDs = new IntList();
-      eventLabels = new HashMap<>();
-      eventIDs = new HashMap<>();
-      eventTimes = new FloatList();
+      exitStates = new ArrayList<>();
+    }
 
-      pathStartTimes = new FloatList();
+    /**
+     * Queues an event for merging into the event log.
+     * @param time the time stamp of the event
+     * @param id the ID of the trajectory
+     * @param type the index of the event type
+     */
+    void addEvent(float time, int id, int type) {
+      pendingTimes.append(time);
+      pendingIDs.append(id);
+      pendingTypes.append(type);
     }
   }
 
@@ -77,16 +141,17 @@ class TrackingUtils {
    * @param parent the instantiating object
    */
   TrackingUtils(BeeTracker parent) {
-    rec = new ShapeRecognizer(parent);
-    rec.loadTemplates(parent);
-
     this.parent = parent;
+    matcher = ShapeRecognizer.loadTemplates(parent);
+    recognitionPool = new RecognitionPool(matcher);
 
     init();
   }
 
   /**
-   * Updates the centroid positions for the current frame.
+   * Updates the centroid positions for the current frame. Each color is
+   *   tracked in parallel; new trajectories and events are then merged in
+   *   color order, so IDs and event order do not depend on thread timing.
    * @param newPointMap a HashMap mapping six-digit hexadecimal RGB values
    *   to Lists of normalized xy coordinates
    * @param frameDims the dimensions of the inset frame
@@ -100,245 +165,1104 @@ class TrackingUtils {
    */
   void trackCentroids(
     HashMap<Integer, List<float[]>> newPointMap,
+    final int[] frameDims,
+    final int[] frameOffset,
+    final float[] exitCenterXY,
+    final float[] exitAxes,
+    final int[] movieDims,
+    int[] movieOffset,
+    final float time,
+    float duration
+  ) {
+    ColorTracker tracker;
+    boolean isCheckpointDue = checkpointTimes.size() == 0 ||
+      time - checkpointTimes.get(checkpointTimes.size() - 1) >=
+        checkpointSpacing;
+
+    if(colors.size() > 1) {
+      List<Callable<Void>> tasks = new ArrayList<>(colors.size());
+
+      for(int color : colors) {
+        final ColorTracker colorTracker = trackers.get(color);
+        final List<float[]> newPoints = newPointMap.get(color);
+
+        tasks.add(new Callable<Void>() {
+          @Override
+          public Void call() {
+            trackColor(
+              colorTracker, newPoints,
+              frameDims, frameOffset,
+              exitCenterXY, exitAxes,
+              movieDims, time
+            );
+
+            return null;
+          }
+        });
+      }
+
+      try {
+        for(Future<Void> result : pool.invokeAll(tasks)) {
+          result.get();
+        }
+      } catch(InterruptedException | ExecutionException e) {
+        e.printStackTrace(System.err);
+      }
+    } else {
+      for(int color : colors) {
+        trackColor(
+          trackers.get(color), newPointMap.get(color),
+          frameDims, frameOffset,
+          exitCenterXY, exitAxes,
+          movieDims, time
+        );
+      }
+    }
+
+    if(waggleMode) {
+      //checkpoints never hold outstanding requests, so restoring one
+      //checks the same windows as tracking did
+      if(isCheckpointDue) {
+        recognitionPool.await();
+      }
+
+      collectRecognitionResults(frameDims);
+      scheduleRecognition(frameDims, time);
+    }
+
+    //merge results in color order
+    for(int color : colors) {
+      tracker = trackers.get(color);
+
+      for(float[] newPoint : tracker.unmatchedPoints) {
+        addTrajectory(
+          tracker, newPoint,
+          frameDims, frameOffset,
+          exitCenterXY, exitAxes,
+          movieDims, time
+        );
+      }
+      tracker.unmatchedPoints.clear();
+
+      flushEvents(tracker);
+    }
+
+    updateEventTimeline(time, duration);
+
+    if(isCheckpointDue) {
+      saveCheckpoint(time);
+
+      if(checkpointTimes.size() > maxCheckpoints) {
+        thinCheckpoints();
+      }
+    }
+  }
+
+  /**
+   * Discards every other checkpoint, keeping the first and the latest, and
+   *   doubles the spacing of future checkpoints. This bounds the number of
+   *   checkpoints held in memory while still covering the whole session.
+   */
+  private void thinCheckpoints() {
+    int last = checkpointTimes.size() - 1;
+
+    for(int i = last - 1; i > 0; i--) {
+      if(i%2 == 1) {
+        checkpointTimes.remove(i);
+        checkpoints.remove(i);
+      }
+    }
+
+    checkpointSpacing *= 2f;
+
+    if(BeeTracker.debug) {
+      System.out.println("checkpoints thinned to " + checkpointTimes.size() +
+        ", spacing now " + checkpointSpacing + "s");
+    }
+  }
+
+  /**
+   * Records the state of all trajectories, IDs and event timelines, along
+   *   with the recognition schedules and waggle run decoders.
+   * @param time the time stamp of the last tracked frame in seconds
+   */
+  private void saveCheckpoint(float time) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    ColorTracker tracker;
+    WaggleRunDecoder decoder;
+
+    try {
+      out.writeInt(currentID);
+      out.writeInt(colors.size());
+
+      for(int color : colors) {
+        tracker = trackers.get(color);
+
+        out.writeInt(color);
+        out.writeInt(tracker.paths.size());
+
+        for(int i = 0; i < tracker.paths.size(); i++) {
+          out.writeInt(tracker.IDs.get(i));
+          out.writeFloat(tracker.timeOuts.get(i));
+          out.writeBoolean(tracker.exitStates.get(i));
+          out.writeBoolean(waggleMode && tracker.waggleStates.get(i));
+          tracker.motions.get(i).write(out);
+          tracker.paths.get(i).write(out);
+
+          out.writeBoolean(waggleMode);
+          if(waggleMode) {
+            tracker.windows.get(i).writeSchedule(out);
+          }
+
+          decoder = tracker.decoders.get(tracker.IDs.get(i));
+          out.writeBoolean(decoder != null);
+          if(decoder != null) {
+            decoder.write(out);
+          }
+        }
+
+        out.writeInt(tracker.intervals.size());
+        for(float[] xBounds : tracker.intervals) {
+          out.writeFloat(xBounds[0]);
+          out.writeFloat(xBounds[1]);
+        }
+      }
+
+      out.flush();
+
+      checkpointTimes.append(time);
+      checkpoints.add(bytes.toByteArray());
+    } catch(IOException e) {
+      e.printStackTrace(System.err);
+    }
+
+    if(BeeTracker.debug) {
+      System.out.println("checkpoint at " + time + "s: " + bytes.size() + " bytes");
+    }
+  }
+
+  /**
+   * Restores the tracking state from the latest checkpoint before a time
+   *   stamp. Later checkpoints and events are discarded. Frames between the
+   *   checkpoint and the time stamp must be tracked again to bring the state
+   *   up to date. Published events at or after the time stamp are withdrawn
+   *   from the event sinks, as they will be published again.
+   * @param time the time stamp in seconds
+   * @return the time stamp of the restored checkpoint, or negative infinity
+   *   if the state was reset to the beginning of the video
+   */
+  float restoreCheckpoint(float time) {
+    int index = checkpointTimes.size() - 1;
+    float result = Float.NEGATIVE_INFINITY;
+    ColorTracker tracker;
+    Trajectory path;
+    RecognitionWindow window;
+    WaggleRunDecoder decoder;
+    int i, j, color, numPaths, id;
+    boolean isWaggle;
+
+    while(index >= 0 && checkpointTimes.get(index) >= time) {
+      checkpointTimes.remove(index);
+      checkpoints.remove(index);
+      index--;
+    }
+
+    recognitionPool.clear();
+
+    currentID = 0;
+    for(int tmp : colors) {
+      tracker = trackers.get(tmp);
+      tracker.paths.clear();
+      tracker.waggleStates.clear();
+      tracker.windows.clear();
+      tracker.motions.clear();
+      tracker.timeOuts.clear();
+      tracker.IDs.clear();
+      tracker.exitStates.clear();
+      tracker.intervals.clear();
+      tracker.decoders.clear();
+      tracker.pendingRuns.clear();
+      tracker.numRequests.clear();
+      tracker.expiredPaths.clear();
+    }
+
+    if(index >= 0) {
+      result = checkpointTimes.get(index);
+
+      DataInputStream in = new DataInputStream(
+        new ByteArrayInputStream(checkpoints.get(index)));
+
+      try {
+        currentID = in.readInt();
+
+        for(i = in.readInt(); i > 0; i--) {
+          color = in.readInt();
+          numPaths = in.readInt();
+          tracker = trackers.get(color);
+
+          for(j = 0; j < numPaths; j++) {
+            id = in.readInt();
+            path = createTrajectory(color, id);
+
+            if(tracker != null) {
+              tracker.IDs.append(id);
+              tracker.timeOuts.append(in.readFloat());
+              tracker.exitStates.add(in.readBoolean());
+              isWaggle = in.readBoolean();
+              tracker.motions.add(MotionState.read(in));
+              path.read(in);
+              tracker.paths.add(path);
+
+              if(waggleMode) {
+                tracker.waggleStates.add(isWaggle);
+                tracker.windows.add(tracker.rec.createWindow());
+              }
+
+              if(in.readBoolean()) {
+                window = tracker.rec.createWindow();
+                window.readSchedule(in);
+
+                if(waggleMode) {
+                  tracker.windows.set(j, window);
+                }
+              }
+
+              if(in.readBoolean()) {
+                decoder = WaggleRunDecoder.read(in);
+
+                if(waggleMode) {
+                  tracker.decoders.put(id, decoder);
+                }
+              }
+            } else {
+              in.readFloat();
+              in.readBoolean();
+              in.readBoolean();
+              MotionState.read(in);
+              path.read(in);
+
+              if(in.readBoolean()) {
+                new RecognitionWindow(0f, 0f).readSchedule(in);
+              }
+
+              if(in.readBoolean()) {
+                WaggleRunDecoder.read(in);
+              }
+            }
+          }
+
+          for(j = in.readInt(); j > 0; j--) {
+            float[] xBounds = {in.readFloat(), in.readFloat()};
+
+            if(tracker != null) {
+              tracker.intervals.push(xBounds);
+            }
+          }
+        }
+      } catch(IOException e) {
+        e.printStackTrace(System.err);
+      }
+    }
+
+    for(int tmp : colors) {
+      tracker = trackers.get(tmp);
+
+      if(tracker.intervals.isEmpty()) {
+        tracker.intervals.push(
+          new float[]{Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY});
+      }
+    }
+
+    events.truncate(result);
+    dispatcher.rewind(time);
+    for(i = waggleRuns.size() - 1; i >= 0; i--) {
+      if(waggleRuns.get(i).getEndTime() > result) {
+        waggleRuns.remove(i);
+      }
+    }
+    deleteSpillFiles(currentID);
+
+    if(BeeTracker.debug) {
+      System.out.println("restored checkpoint at " + result + "s");
+    }
+
+    return result;
+  }
+
+  /**
+   * Sets whether new events are announced. Events are always recorded, but
+   *   are only shown and sent to the event sinks while live, so frames that
+   *   are tracked again after a seek do not repeat them.
+   * @param live true to announce new events
+   */
+  void setLive(boolean live) {
+    isLive = live;
+  }
+
+  /**
+   * Updates the trajectories of a single color. Only touches the state of
+   *   the given ColorTracker, so different colors may be tracked
+   *   concurrently. Unpaired points and new events are left in the tracker
+   *   for merging.
+   * @param tracker the ColorTracker for the color
+   * @param points the normalized xy coordinates of the points of the color
+   *   in the current frame
+   * @param frameDims the dimensions of the inset frame
+   * @param frameOffset the offset of the inset frame
+   * @param exitCenterXY the exit center coordinates, referenced to the inset frame
+   * @param exitAxes the exit semi-major axes, referenced to the inset frame
+   * @param movieDims the dimensions of the video
+   * @param time time stamp of the current frame in seconds
+   */
+  private void trackColor(
+    ColorTracker tracker,
+    List<float[]> points,
     int[] frameDims,
     int[] frameOffset,
     float[] exitCenterXY,
     float[] exitAxes,
     int[] movieDims,
-    int[] movieOffset,
-    float time,
-    float duration
+    float time
   ) {
-    List<float[]> newPoints;
-    Deque<float[]> path;
-    List<Deque<float[]>> oldPaths;
+    List<float[]> newPoints = new ArrayList<>(points);
+    Trajectory path;
+    List<Trajectory> oldPaths = tracker.paths;
     List<Boolean> waggleStates;
+    List<MotionState> motions = tracker.motions;
+    MotionState motion;
     java.util.ListIterator<Boolean> waggleIter;
-    FloatList timeOuts;
-    IntList checkedIndicesOld, checkedIndicesNew;
-    IntList pathIDs;
-    float oldX, oldY, newX, newY, minDist;
+    FloatList timeOuts = tracker.timeOuts;
+    IntList pathIDs = tracker.IDs;
+    float oldX, oldY, dist, gate, minGate, maxTrackGate;
     float[] point;
-    float[][] distances;
-    int i, j, k, numPairs, minI, minJ;
+    int i, j, k, n, numNeighbors;
+    int[] assignment;
     int[][] validPairs = null;
-    boolean isOldPointInExit, isNewPointInExit;
+    int[] neighbors;
+    float[] newXs, newYs, trackGates;
+    CandidatePairs pairs = tracker.pairs;
+    List<Boolean> exitStates = tracker.exitStates;
+    boolean isInside, isWaggle = false;
+
+    if(waggleMode) {
+      waggleStates = tracker.waggleStates;
+    } else {
+      waggleStates = null;
+    }
+
+    k = 0;
+
+    if(BeeTracker.debug) {
+      System.out.println(String.format(
+        "---checking blobs colored %06x---%s %d%s %d",
+        tracker.color,
+        "\npaths from last frame:",
+        oldPaths.size(),
+        "\npoints in current frame:",
+        newPoints.size()
+      ));
+    }
+
+    if(oldPaths.size() > 0 && newPoints.size() > 0) {
+      gate = distThreshold*analysisStride*
+        BeeTracker.sqrt(movieDims[0]*movieDims[1]);
+      minGate = minGateRatio*BeeTracker.sqrt(movieDims[0]*movieDims[1]);
+
+      pairs.clear();
+
+      if(tracker.newXs.length < newPoints.size()) {
+        tracker.newXs = new float[newPoints.size()];
+        tracker.newYs = new float[newPoints.size()];
+        tracker.neighbors = new int[newPoints.size()];
+      }
+      newXs = tracker.newXs;
+      newYs = tracker.newYs;
+      neighbors = tracker.neighbors;
+
+      j = 0;
+      for(float[] newPoint : newPoints) {
+        newXs[j] = newPoint[0]*movieDims[0];
+        newYs[j] = newPoint[1]*movieDims[1];
+        j++;
+      }
+
+      if(tracker.trackGates.length < oldPaths.size()) {
+        tracker.trackGates = new float[oldPaths.size()];
+      }
+      trackGates = tracker.trackGates;
+
+      //size the grid cells from the widest track gate, not the global gate
+      maxTrackGate = minGate;
+      for(i = 0; i < oldPaths.size(); i++) {
+        trackGates[i] = BeeTracker.constrain(
+          motions.get(i).getGateRadius(time),
+          minGate,
+          gate
+        );
+
+        if(trackGates[i] > maxTrackGate) {
+          maxTrackGate = trackGates[i];
+        }
+      }
+
+      tracker.grid.build(
+        newXs,
+        newYs,
+        j,
+        maxTrackGate,
+        movieDims[0],
+        movieDims[1]
+      );
+
+      //calc distances between predicted points and nearby new points
+      for(i = 0; i < oldPaths.size(); i++) {
+        motion = motions.get(i);
+        oldX = motion.predictX(time);
+        oldY = motion.predictY(time);
+
+        numNeighbors = tracker.grid.getNeighbors(oldX, oldY, neighbors);
+        for(n = 0; n < numNeighbors; n++) {
+          j = neighbors[n];
+          dist = BeeTracker.dist(oldX, oldY, newXs[j], newYs[j]);
+
+          if(dist < trackGates[i]) {
+            pairs.add(i, j, dist);
+          }
+        }
+      }
+
+      if(BeeTracker.debug) {
+        System.out.println(pairs.size() + " candidate pair(s)");
+      }
+
+      assignment = tracker.solver.solve(
+        oldPaths.size(),
+        newPoints.size(),
+        pairs,
+        gate
+      );
+
+      validPairs = new int[BeeTracker.min(oldPaths.size(), newPoints.size())][2];
+
+      for(i = 0; i < assignment.length; i++) {
+        if(assignment[i] >= 0) {
+          validPairs[k][0] = i;
+          validPairs[k][1] = assignment[i];
+
+          k++;
+
+          if(BeeTracker.debug) {
+            System.out.println("points (" + i + ", " + assignment[i] + ") paired");
+          }
+        }
+      }
+    }
+
+    if(BeeTracker.debug) {
+      System.out.println(k + " point(s) paired");
+    }
+
+    //update old points for next frame
+    for(i = 0; i < k; i++) {
+      path = oldPaths.get(validPairs[i][0]);
+      point = newPoints.get(validPairs[i][1]);
+      if(!path.isLastSource(point)) {
+        if(analysisStride > 1) {
+          interpolatePath(path, point, time);
+        }
+
+        path.append(point, time);
+
+        motions.get(validPairs[i][0]).update(
+          point[0]*movieDims[0],
+          point[1]*movieDims[1],
+          time
+        );
+
+        //check for ingress/egress as the exit boundary is crossed; a path
+        //  must pass through a band around the boundary to change state, so
+        //  jitter on the boundary does not produce repeated events
+        isInside = exitStates.get(validPairs[i][0]);
+        if(isInside != isInExit(
+          point, frameDims, frameOffset,
+          exitCenterXY, exitAxes,
+          isInside ? exitOuterBand : exitInnerBand
+        )) {
+          isInside = !isInside;
+          exitStates.set(validPairs[i][0], isInside);
+
+          if(waggleStates == null) {
+            tracker.addEvent(time, pathIDs.get(validPairs[i][0]), isInside ? 0 : 1);
+          }
+        }
+      }
+      newPoints.set(validPairs[i][1], null);
+      timeOuts.set(validPairs[i][0], time);
+    }
+
+    //keep unpaired points for new trajectories
+    for(float[] newPoint : newPoints) {
+      if(newPoint != null) {
+        tracker.unmatchedPoints.add(newPoint);
+      }
+    }
+
+    if(BeeTracker.debug) {
+      System.out.println(String.format("all paths for %06x:", tracker.color));
+      for(i = 0; i < oldPaths.size(); i++) {
+        System.out.println(i + ":");
+        path = oldPaths.get(i);
+
+        for(j = 0; j < path.size(); j++) {
+          System.out.println(path.getX(j) + "," + path.getY(j));
+        }
+      }
+    }
+
+    //segment the trajectories of dancing bees into waggle runs
+    if(waggleStates != null) {
+      for(WaggleRunDecoder decoder : tracker.decoders.values()) {
+        decoder.update(
+          oldPaths.get(pathIDs.index(decoder.getID())),
+          frameDims,
+          tracker.pendingRuns
+        );
+      }
+    }
+
+    waggleIter = waggleStates != null ?
+      waggleStates.listIterator(timeOuts.size()) : null;
+    for(i = timeOuts.size() - 1; i >= 0; i--) {
+      if(waggleIter != null) {
+        isWaggle = waggleIter.previous();
+      }
+
+      //remove points that have been missing for too long
+      if(time - timeOuts.get(i) > timeOutThreshold) {
+        if(waggleIter != null) {
+          //keep the path until its outstanding recognition results arrive
+          if(!isWaggle && tracker.numRequests.containsKey(pathIDs.get(i))) {
+            tracker.expiredPaths.put(pathIDs.get(i), oldPaths.get(i));
+          }
+
+          waggleIter.remove();
+          tracker.windows.remove(i);
+
+          WaggleRunDecoder decoder = tracker.decoders.remove(pathIDs.get(i));
+          if(decoder != null) {
+            decoder.finish(tracker.pendingRuns);
+          }
+        }
+
+        timeOuts.remove(i);
+        oldPaths.remove(i);
+        motions.remove(i);
+        pathIDs.remove(i);
+        exitStates.remove(i);
+      }
+    }
+  }
+
+  /**
+   * Starts a new trajectory.
+   * @param tracker the ColorTracker for the trajectory color
+   * @param point the normalized xy coordinates of the first point
+   * @param frameDims the dimensions of the inset frame
+   * @param frameOffset the offset of the inset frame
+   * @param exitCenterXY the exit center coordinates, referenced to the inset frame
+   * @param exitAxes the exit semi-major axes, referenced to the inset frame
+   * @param movieDims the dimensions of the video
+   * @param time time stamp of the current frame in seconds
+   */
+  private void addTrajectory(
+    ColorTracker tracker,
+    float[] point,
+    int[] frameDims,
+    int[] frameOffset,
+    float[] exitCenterXY,
+    float[] exitAxes,
+    int[] movieDims,
+    float time
+  ) {
+    Trajectory path = createTrajectory(tracker.color, currentID);
+    path.append(point, time);
+    tracker.paths.add(path);
+    tracker.motions.add(new MotionState(
+      point[0]*movieDims[0],
+      point[1]*movieDims[1],
+      time
+    ));
+    tracker.timeOuts.append(time);
+    tracker.IDs.append(currentID++);
+    tracker.exitStates.add(isInExit(
+      point, frameDims, frameOffset,
+      exitCenterXY, exitAxes, 1f
+    ));
+
+    if(waggleMode) {
+      tracker.waggleStates.add(false);
+      tracker.windows.add(tracker.rec.createWindow());
+    }
+  }
+
+  /**
+   * Flags the trajectories recognized by the worker pool as waggle dances
+   *   and queues their events. Each result is recorded as of the frame its
+   *   request was submitted in, so the events and waggle runs match those
+   *   found by recognizing the same windows on the tracking thread.
+   * @param frameDims the dimensions of the inset frame
+   */
+  private void collectRecognitionResults(int[] frameDims) {
+    RecognitionPool.Result result;
     ColorTracker tracker;
-    FloatList pathStartTimes;
+    Trajectory path;
+    WaggleRunDecoder decoder;
+    Integer count;
+    int index, numRequests;
+
+    while((result = recognitionPool.poll()) != null) {
+      tracker = trackers.get(result.color);
+
+      if(tracker == null || !waggleMode) {
+        continue;
+      }
+
+      count = tracker.numRequests.get(result.id);
+      numRequests = count == null ? 0 : count - 1;
+      if(numRequests > 0) {
+        tracker.numRequests.put(result.id, numRequests);
+      } else {
+        tracker.numRequests.remove(result.id);
+      }
+
+      index = tracker.IDs.index(result.id);
+
+      if(index >= 0) {
+        //ignore trajectories that were already flagged
+        if(result.isRecognized && !tracker.waggleStates.get(index)) {
+          flagWaggle(tracker, index, result.time, result.startTime);
+        }
+      } else {
+        path = numRequests > 0 ?
+          tracker.expiredPaths.get(result.id) :
+          tracker.expiredPaths.remove(result.id);
+
+        //decode the runs of trajectories that timed out in the meantime
+        if(result.isRecognized && path != null) {
+          tracker.expiredPaths.remove(result.id);
+          tracker.addEvent(result.time, result.id, 2);
+
+          decoder = new WaggleRunDecoder(
+            result.id,
+            tracker.color,
+            result.startTime,
+            Float.NEGATIVE_INFINITY
+          );
+          decoder.update(path, frameDims, tracker.pendingRuns);
+          decoder.finish(tracker.pendingRuns);
+        }
+      }
+    }
+  }
+
+  /**
+   * Selects the trajectories to check for waggle dances in the current
+   *   frame. A trajectory is due when its window is large enough to contain
+   *   a dance and it has gained enough points, first became large enough,
+   *   or has gained points and not been checked for a while. At most
+   *   recognitionBudget trajectories are checked per frame, least recently
+   *   checked first, so due trajectories are served in turn.
+   * @param frameDims the dimensions of the inset frame
+   * @param time time stamp of the current frame in seconds
+   */
+  private void scheduleRecognition(int[] frameDims, float time) {
+    ColorTracker tracker;
+    RecognitionWindow window;
+    int i, j, best, tmpIndex;
+    int numChecked = 0;
+
+    dueTrackers.clear();
+    dueIndices.clear();
 
     for(int color : colors) {
       tracker = trackers.get(color);
 
-      oldPaths = tracker.paths;
-      newPoints = new ArrayList<>(newPointMap.get(color));
-      timeOuts = tracker.timeOuts;
-      pathIDs = tracker.IDs;
+      for(i = 0; i < tracker.paths.size(); i++) {
+        if(!tracker.waggleStates.get(i)) {
+          window = tracker.windows.get(i);
+          window.sync(tracker.paths.get(i), frameDims);
+
+          if(isRecognitionDue(window, time)) {
+            dueTrackers.add(tracker);
+            dueIndices.append(i);
+          }
+        }
+      }
+    }
+
+    for(j = 0; j < recognitionBudget && j < dueIndices.size(); j++) {
+      //find the least recently checked trajectory
+      best = j;
+      for(i = j + 1; i < dueIndices.size(); i++) {
+        if(
+          dueTrackers.get(i).windows.get(dueIndices.get(i)).getEvaluatedTime() <
+          dueTrackers.get(best).windows.get(dueIndices.get(best)).getEvaluatedTime()
+        ) {
+          best = i;
+        }
+      }
+
+      tracker = dueTrackers.get(best);
+      tmpIndex = dueIndices.get(best);
+      dueTrackers.set(best, dueTrackers.get(j));
+      dueIndices.set(best, dueIndices.get(j));
+      dueTrackers.set(j, tracker);
+      dueIndices.set(j, tmpIndex);
 
-      pathStartTimes = tracker.pathStartTimes;
+      recognizeTrajectory(tracker, tmpIndex, time);
+      numChecked++;
+    }
 
-      if(waggleMode) {
-        waggleStates = trackers.get(color).waggleStates;
-      } else {
-        waggleStates = null;
-      }
+    if(BeeTracker.debug) {
+      System.out.println(numChecked + " of " + dueIndices.size() +
+        " due trajectories checked for waggle dances");
+    }
+  }
 
-      checkedIndicesOld = new IntList();
-      checkedIndicesNew = new IntList();
+  /**
+   * @param window the recognition window of a trajectory
+   * @param time time stamp of the current frame in seconds
+   * @return true if the trajectory should be checked for waggle dances
+   */
+  private boolean isRecognitionDue(RecognitionWindow window, float time) {
+    //same points, same result
+    if(
+      window.getNewPointCount() <= 0 ||
+      !ShapeRecognizer.hasMinimumSize(window)
+    ) {
+      return false;
+    }
 
-      k = 0;
+    boolean result = !window.wasLargeEnough() ||
+      time - window.getEvaluatedTime() >= recognitionInterval;
 
-      if(BeeTracker.debug) {
-        System.out.println(String.format(
-          "---checking blobs colored %06x---%s %d%s %d",
-          color,
-          "\npaths from last frame:",
-          oldPaths.size(),
-          "\npoints in current frame:",
-          newPoints.size()
-        ));
+    //screen out implausible motion before template matching
+    if(result) {
+      if(ShapeRecognizer.isPlausibleWaggle(window)) {
+        numPrefilterPassed++;
+      } else {
+        numPrefilterRejected++;
+        window.markEvaluated(time);
+        result = false;
       }
+    }
 
-      if(oldPaths.size() > 0 && newPoints.size() > 0) {
-        distances = new float[oldPaths.size()][newPoints.size()];
+    return result;
+  }
 
-        if(BeeTracker.debug) {
-          System.out.println("distance table:");
-        }
+  /**
+   * @return the number of due trajectories passed on to template matching
+   *   by the waggle pre-filter
+   */
+  long getPrefilterPassCount() {
+    return numPrefilterPassed;
+  }
 
-        //calc distances between all old and all new points
-        for(i = 0; i < oldPaths.size(); i++) {
-          point = oldPaths.get(i).peekLast();
+  /**
+   * @return the number of due trajectories rejected by the waggle
+   *   pre-filter
+   */
+  long getPrefilterRejectCount() {
+    return numPrefilterRejected;
+  }
 
-          j = 0;
-          for(float[] newPoint : newPoints) {
-            distances[i][j] = BeeTracker.dist(
-              point[0]*movieDims[0], point[1]*movieDims[1],
-              newPoint[0]*movieDims[0], newPoint[1]*movieDims[1]
-            );
+  /**
+   * Checks a trajectory for waggle dances, on the worker pool unless
+   *   frames are being tracked again after a seek.
+   * @param tracker the ColorTracker containing the trajectory
+   * @param index the index of the trajectory
+   * @param time time stamp of the current frame in seconds
+   */
+  private void recognizeTrajectory(
+    ColorTracker tracker,
+    int index,
+    float time
+  ) {
+    RecognitionWindow window = tracker.windows.get(index);
+    window.markEvaluated(time);
+
+    if(isLive) {
+      int id = tracker.IDs.get(index);
+      Integer numRequests = tracker.numRequests.get(id);
+
+      //recognize a snapshot off the tracking thread; a request that
+      //replaces a queued one does not add to the outstanding count
+      if(recognitionPool.submit(
+        tracker.color,
+        id,
+        time,
+        new RecognitionWindow(window)
+      )) {
+        tracker.numRequests.put(id, numRequests == null ? 1 : numRequests + 1);
+      }
+    } else if(tracker.rec.recognize(window)) {
+      flagWaggle(
+        tracker, index, time,
+        window.size() > 0 ? window.getTime(window.size() - 1) : time
+      );
+    }
+  }
 
-            if(BeeTracker.debug) {
-              System.out.print(distances[i][j] + " ");
-            }
+  /**
+   * Flags a trajectory as a waggle dance, queues its event, and starts
+   *   decoding its waggle runs from the oldest point of the recognized
+   *   window.
+   * @param tracker the ColorTracker containing the trajectory
+   * @param index the index of the trajectory
+   * @param time the time stamp of the recognition in seconds
+   * @param startTime the time stamp of the oldest point of the recognized
+   *   window in seconds
+   */
+  private void flagWaggle(
+    ColorTracker tracker,
+    int index,
+    float time,
+    float startTime
+  ) {
+    int id = tracker.IDs.get(index);
+
+    tracker.waggleStates.set(index, true);
+    tracker.addEvent(time, id, 2);
+    tracker.decoders.put(id, new WaggleRunDecoder(
+      id,
+      tracker.color,
+      startTime,
+      Float.NEGATIVE_INFINITY
+    ));
+  }
 
-            j++;
-          }
+  /**
+   * Waits for all outstanding waggle recognition requests and records
+   *   their events, then ends the waggle runs in progress.
+   * @param frameDims the dimensions of the inset frame
+   */
+  void finishRecognition(int[] frameDims) {
+    ColorTracker tracker;
 
-          if(BeeTracker.debug) {
-             System.out.println();
-          }
-        }
+    recognitionPool.await();
+    collectRecognitionResults(frameDims);
 
-        minI = minJ = -1;
+    for(int color : colors) {
+      tracker = trackers.get(color);
 
-        numPairs = (
-          oldPaths.size() > newPoints.size() ?
-          newPoints.size() :
-          oldPaths.size()
+      for(WaggleRunDecoder decoder : tracker.decoders.values()) {
+        decoder.update(
+          tracker.paths.get(tracker.IDs.index(decoder.getID())),
+          frameDims,
+          tracker.pendingRuns
         );
-        validPairs = new int[numPairs][2];
-
-        //until all valid old and new point pairs have been assigned
-        while(checkedIndicesOld.size() < numPairs) {
-          minDist = Float.MAX_VALUE;
-
-          //pair points with minimum distance
-          for(i = 0; i < oldPaths.size(); i++) {
-            //oldPoints.get(i) not already paired
-            if(!checkedIndicesOld.hasValue(i)) {
-              for(j = 0; j < newPoints.size(); j++) {
-                //newPoints.get(j) not already paired
-                if(!checkedIndicesNew.hasValue(j)) {
-                  if(distances[i][j] < minDist) {
-                    minI = i;
-                    minJ = j;
-                    minDist = distances[i][j];
-                  }
-                }
-              }
-            }
-          }
+        decoder.finish(tracker.pendingRuns);
+      }
+      tracker.decoders.clear();
 
-          //mark paired points
-          checkedIndicesOld.append(minI);
-          checkedIndicesNew.append(minJ);
+      flushEvents(tracker);
+    }
+  }
 
-          //mark pairs with valid distance
-          if(minDist < distThreshold*BeeTracker.sqrt(movieDims[0]*movieDims[1])) {
-            validPairs[k][0] = minI;
-            validPairs[k][1] = minJ;
+  /**
+   * Moves the pending events of a color into the event log.
+   * @param tracker the ColorTracker for the color
+   */
+  private void flushEvents(ColorTracker tracker) {
+    float eventTime;
+    int id, type;
 
-            k++;
+    for(int i = 0; i < tracker.pendingTimes.size(); i++) {
+      eventTime = tracker.pendingTimes.get(i);
+      id = tracker.pendingIDs.get(i);
+      type = tracker.pendingTypes.get(i);
 
-            if(BeeTracker.debug) {
-              System.out.println("points (" + minI + ", " + minJ + ") paired");
-            }
-          } else {  //if the closest pair of points is not within the distance
-            break;  //  threshold, no other points will be, so break loop
-          }
+      events.add(eventTime, id, tracker.color, type);
+
+      if(isLive) {
+        parent.registerEvent(id, eventTypes[type], eventTime);
+
+        if(dispatcher.hasSubscribers()) {
+          dispatcher.publish(new TrackingEvent(eventTime, id, tracker.color, type));
         }
       }
+    }
 
-      if(BeeTracker.debug) {
-        System.out.println(k + " point(s) paired");
+    tracker.pendingTimes.clear();
+    tracker.pendingIDs.clear();
+    tracker.pendingTypes.clear();
+
+    for(WaggleRun run : tracker.pendingRuns) {
+      waggleRuns.add(run);
+
+      if(isLive && BeeTracker.debug) {
+        System.out.println("waggle run: " + run.toCSV());
       }
+    }
+    tracker.pendingRuns.clear();
+  }
 
-      //check for waggle dances
-      if(waggleStates != null) {
-        waggleIter = waggleStates.listIterator();
-        i = 0;
-        while(waggleIter.hasNext()) {
-          if(!waggleIter.next()) {
-            rec.recognize(oldPaths.get(i), frameDims);
-//            rec.trackPath(color, pathIDs.get(i), oldPaths.get(i), frameDims);
+  /**
+   * @return true if any trajectories have not yet timed out
+   */
+  boolean hasActiveTracks() {
+    for(int color : colors) {
+      if(!trackers.get(color).paths.isEmpty()) {
+        return true;
+      }
+    }
 
-            if(rec.isCandidateRecognized()) {
-              waggleIter.set(true);
+    return false;
+  }
 
-              tracker.eventLabels.put(time, eventTypes[2]);
-              tracker.eventIDs.put(time, pathIDs.get(i));
-              parent.registerEvent(pathIDs.get(i), eventTypes[2], time);
-              tracker.eventTimes.append(time);
-            }
-          }
+  /**
+   * Retrieves the search windows around the predicted positions of all live
+   *   trajectories. Each window spans the gate that the next detection must
+   *   fall within to continue the trajectory, plus a margin for the extent
+   *   of the blob around its centroid.
+   * @param movieDims the dimensions of the video
+   * @param time the time stamp of the frame to search, in seconds
+   * @return a List of normalized {xMin, yMin, xMax, yMax} bounds, or null if
+   *   there are no live trajectories
+   */
+  List<float[]> getSearchWindows(int[] movieDims, float time) {
+    List<float[]> result = new ArrayList<>();
+    float diag = BeeTracker.sqrt(movieDims[0]*movieDims[1]);
+    float minGate = minGateRatio*diag;
+    float gate = distThreshold*analysisStride*diag;
+    float margin = windowMarginRatio*diag;
+    float x, y, radius;
 
-          i++;
-        }
+    for(int color : colors) {
+      for(MotionState motion : trackers.get(color).motions) {
+        x = motion.predictX(time);
+        y = motion.predictY(time);
+        radius = BeeTracker.constrain(
+          motion.getGateRadius(time),
+          minGate,
+          gate
+        ) + margin;
+
+        result.add(new float[] {
+          (x - radius)/movieDims[0],
+          (y - radius)/movieDims[1],
+          (x + radius)/movieDims[0],
+          (y + radius)/movieDims[1]
+        });
       }
+    }
 
-      //update old points for next frame
-      for(i = 0; i < k; i++) {
-        path = oldPaths.get(validPairs[i][0]);
-        point = newPoints.get(validPairs[i][1]);
-        if(!path.contains(point)) {
-          path.add(point);
-        }
-        newPoints.set(validPairs[i][1], null);
-        timeOuts.set(validPairs[i][0], time);
-      }
+    return result.isEmpty() ? null : result;
+  }
 
-      //add new points for next frame
-      j = 1;
-      for(float[] newPoint : newPoints) {
-        if(newPoint != null) {
-          path = new java.util.LinkedList<>();
-          path.add(newPoint);
-          oldPaths.add(path);
-          timeOuts.append(time);
-          pathIDs.append(currentID++);
+  /**
+   * Fills in the positions for the frames skipped since a trajectory was
+   *   last updated, assuming constant velocity.
+   * @param path the trajectory
+   * @param point the new point to be added to the trajectory
+   * @param time the time stamp of the new point
+   */
+  private void interpolatePath(Trajectory path, float[] point, float time) {
+    float lastX = path.getLastX(), lastY = path.getLastY();
+    float lastTime = path.getTime(path.size() - 1);
+    int numFrames = BeeTracker.round((time - lastTime)*parent.fps);
+    float t;
+
+    for(int i = 1; i < numFrames; i++) {
+      t = ((float)i)/numFrames;
+
+      path.append(
+        lastX + (point[0] - lastX)*t,
+        lastY + (point[1] - lastY)*t,
+        lastTime + (time - lastTime)*t
+      );
+    }
+  }
 
-          pathStartTimes.append(time);
+  /**
+   * Creates an empty trajectory, spilling to disk if a history window has
+   *   been set.
+   * @param color the six-digit hexadecimal RGB value of the trajectory
+   * @param id the ID of the trajectory
+   * @return the new Trajectory
+   */
+  private Trajectory createTrajectory(int color, int id) {
+    Trajectory result;
 
-          if(waggleStates != null) {
-            waggleStates.add(false);
-          }
+    if(historyWindow > 0f) {
+      result = new Trajectory(
+        new File(getSpillDirectory(), String.format("%06x-%d.bin", color, id)),
+        historyWindow
+      );
+    } else {
+      result = new Trajectory();
+    }
 
-          j++;  //index offset for updating timeout values later
-        }
-      }
+    return result;
+  }
 
-      if(BeeTracker.debug) {
-        System.out.println(String.format("all paths for %06x:",color));
-        for(i = 0; i < oldPaths.size(); i++) {
-          System.out.println(i + ":");
-          path = oldPaths.get(i);
+  /**
+   * @return the directory containing the spilled trajectory files
+   */
+  private File getSpillDirectory() {
+    return new File(System.getProperty("user.dir") + File.separatorChar +
+      "output" + File.separatorChar + parent.getVideoName() +
+      File.separatorChar + "tracks");
+  }
 
-          for(float[] tmpPoint : path) {
-            System.out.println(tmpPoint[0] + "," + tmpPoint[1]);
-          }
-        }
-      }
+  /**
+   * Sets the duration of each trajectory to keep in memory. Older points are
+   *   spilled to per-trajectory files in the output directory.
+   * @param seconds the minimum duration to keep in memory, or 0 to keep
+   *   entire trajectories in memory
+   */
+  void setHistoryWindow(float seconds) {
+    //recognition windows and run decoders are rebuilt from the points in
+    //memory, so at least a full recognition window must be kept
+    if(seconds > 0f && seconds < ShapeRecognizer.timeOut) {
+      System.err.println("history window raised from " + seconds +
+        "s to the " + ShapeRecognizer.timeOut + "s recognition window");
+
+      seconds = ShapeRecognizer.timeOut;
+    }
 
-      int numOldPoints = timeOuts.size() - j;
-      waggleIter = waggleStates != null ?
-        waggleStates.listIterator(numOldPoints + 1) : null;
-      for(i = numOldPoints; i >= 0; i--) {
-        if(waggleIter != null) {
-          waggleIter.previous();
-        }
+    historyWindow = seconds;
+  }
 
-        //remove points that have been missing for too long
-        if(time - timeOuts.get(i) > timeOutThreshold) {
-          if(waggleIter != null) {
-            waggleIter.remove();
-          } else {  //check for ingress/egress
-            eventCheck(
-              tracker, i,
-              frameDims, frameOffset,
-              exitCenterXY, exitAxes,
-              time
-            );
-          }
+  /**
+   * Sets the number of video frames between analyzed frames. Trajectory
+   *   gating is scaled accordingly, and skipped positions are interpolated.
+   * @param stride the number of video frames per analyzed frame
+   */
+  void setAnalysisStride(int stride) {
+    analysisStride = stride;
+  }
 
-          timeOuts.remove(i);
-          oldPaths.remove(i);
-          pathIDs.remove(i);
+  /**
+   * Sets the method for pairing trajectories with new points.
+   * @param optimal true for minimum total distance pairing, false for
+   *   greedy nearest-pair-first pairing
+   */
+  void setOptimalAssignment(boolean optimal) {
+    optimalAssignment = optimal;
 
-          pathStartTimes.remove(i);
-        }
-      }
+    for(ColorTracker tracker : trackers.values()) {
+      tracker.solver = createSolver();
     }
+  }
 
-    updateEventTimeline(time, duration);
+  /**
+   * @return a new AssignmentSolver for the current pairing method
+   */
+  private AssignmentSolver createSolver() {
+    return optimalAssignment ?
+      new ShortestPathAssignment() : new GreedyAssignment();
   }
 
   /**
@@ -350,37 +1274,114 @@ class TrackingUtils {
       if(!colors.hasValue(color)) {
         colors.append(color);
 
-        ColorTracker tracker = new ColorTracker();
+        ColorTracker tracker = new ColorTracker(color);
         trackers.put(color, tracker);
       }
     }
   }
 
   /**
-   * Retrieves the ingress and egress time stamps for all tracked colors.
-   * @return a HashMap mapping Strings to HashMaps mapping six-digit
-   *   hexadecimal RGB values to Lists of floating point time stamps
+   * Retrieves the events for all tracked colors.
+   * @return an EventLog containing all events in time order
+   */
+  EventLog getEvents() {
+    return events;
+  }
+
+  /**
+   * Allocates the buffers for paging in spilled points.
    */
-  HashMap<Float, String> getSummary() {
-    HashMap<Float, String> result = new HashMap<>();
+  private void allocatePages() {
+    if(pageXs == null) {
+      pageXs = new float[pageSize + 1];
+      pageYs = new float[pageSize + 1];
+      pageTimes = new float[pageSize + 1];
+    }
+  }
 
-    FloatList times;
-    Float[] tmp;
+  /**
+   * Saves every point of the trajectories still being tracked to file,
+   *   paging in the spilled points.
+   * @param fileName the path of the file to write
+   */
+  void savePaths(String fileName) {
+    java.io.BufferedWriter writer = null;
+    Trajectory path;
     ColorTracker tracker;
-    for(int color : colors) {
-      tracker = trackers.get(color);
+    String prefix;
+    int i, j, numPaged;
+
+    allocatePages();
 
-      tmp = tracker.eventLabels.keySet().toArray(new Float[0]);
-      Arrays.sort(tmp);
-      times = new FloatList((Object[])tmp);
+    try {
+      writer = new java.io.BufferedWriter(new java.io.OutputStreamWriter(
+        new java.io.FileOutputStream(fileName), "UTF-8")
+      );
+
+      writer.append("\"bee ID\",color,time,x,y\n");
+      for(int color : colors) {
+        tracker = trackers.get(color);
+
+        for(i = 0; i < tracker.paths.size(); i++) {
+          path = tracker.paths.get(i);
+          prefix = String.format("%d,#%06x,", tracker.IDs.get(i), color);
+
+          for(j = 0; j < path.getSpilledCount(); j += pageSize) {
+            numPaged = path.readSpilled(
+              j, pageSize,
+              pageXs, pageYs, pageTimes
+            );
+
+            for(int k = 0; k < numPaged; k++) {
+              writer.append(prefix).append(String.format(
+                "%.3f,%.5f,%.5f\n", pageTimes[k], pageXs[k], pageYs[k]));
+            }
+          }
 
-      for(Float time : times) {
-        result.put(time, String.format("%d,#%06x,%s",
-          tracker.eventIDs.get(time), color, tracker.eventLabels.get(time)));
+          for(j = 0; j < path.size(); j++) {
+            writer.append(prefix).append(String.format(
+              "%.3f,%.5f,%.5f\n",
+              path.getTime(j), path.getX(j), path.getY(j)
+            ));
+          }
+        }
+      }
+      writer.flush();
+    } catch (IOException e) {
+      e.printStackTrace(System.err);
+    } finally {
+      if(writer != null) {
+        try {
+          writer.close();
+        } catch (IOException e) {
+          e.printStackTrace(System.err);
+        }
       }
     }
+  }
 
-    return result;
+  /**
+   * @return the decoded waggle runs, in order of completion
+   */
+  List<WaggleRun> getWaggleRuns() {
+    return waggleRuns;
+  }
+
+  /**
+   * Adds a sink for events as they are detected. Sinks are removed and
+   *   closed when the tracking data is reset.
+   * @param sink the EventSink to add
+   */
+  void subscribe(EventSink sink) {
+    dispatcher.subscribe(sink);
+  }
+
+  /**
+   * Removes and closes an event sink.
+   * @param sink the EventSink to remove
+   */
+  void unsubscribe(EventSink sink) {
+    dispatcher.unsubscribe(sink);
   }
 
   /**
@@ -389,16 +1390,51 @@ class TrackingUtils {
    * @param y the y coordinate of the point in pixels
    * @param exitXY the coordinates of the exit center in pixels
    * @param axes the axes of the exit in pixels
-   * @return true if (dX/A)^2 + (dY/B)^2 <= 1, where
+   * @param scale the scale factor applied to the axes
+   * @return true if (dX/A)^2 + (dY/B)^2 <= S^2, where
    *   dX is the distance between the point and the exit center on the x axis
    *   dY is the distance between the point and the exit center on the y axis
    *   A is the length of the ellipse along the x axis
    *   B is the length of the ellipse along the y axis
+   *   S is the scale factor
    */
-  private boolean isInExit(float x, float y, float[] exitXY, float[] axes) {
+  private boolean isInExit(
+    float x,
+    float y,
+    float[] exitXY,
+    float[] axes,
+    float scale
+  ) {
     float a = (x - exitXY[0])/axes[0];
     float b = (y - exitXY[1])/axes[1];
-    return a*a + b*b <= 1f;
+    return a*a + b*b <= scale*scale;
+  }
+
+  /**
+   * Determines if a normalized point is within the exit.
+   * @param point the normalized xy coordinates of the point
+   * @param frameDims the dimensions of the inset frame
+   * @param frameOffset the offset of the inset frame
+   * @param exitCenterXY the exit center coordinates, referenced to the inset frame
+   * @param exitAxes the exit semi-major axes, referenced to the inset frame
+   * @param scale the scale factor applied to the exit axes
+   * @return true if the point is within the scaled exit
+   */
+  private boolean isInExit(
+    float[] point,
+    int[] frameDims,
+    int[] frameOffset,
+    float[] exitCenterXY,
+    float[] exitAxes,
+    float scale
+  ) {
+    return isInExit(
+      point[0]*frameDims[0] + frameOffset[0],
+      point[1]*frameDims[1] + frameOffset[1],
+      exitCenterXY,
+      exitAxes,
+      scale
+    );
   }
 
   /**
@@ -408,8 +1444,45 @@ class TrackingUtils {
     colors = new IntList();
     currentID = 0;
     trackers = new HashMap<>();
+    events = new EventLog();
+    waggleRuns = new ArrayList<>();
+    dispatcher.close();
+    checkpointSpacing = checkpointInterval;
+    checkpointTimes = new FloatList();
+    checkpoints = new ArrayList<>();
+    recognitionPool.clear();
+    numPrefilterPassed = numPrefilterRejected = 0;
+
+    //remove spilled trajectories from the previous session
+    deleteSpillFiles(0);
+  }
+
+  /**
+   * Deletes the spilled trajectory files with IDs at or above a threshold.
+   * @param minID the lowest trajectory ID to delete
+   */
+  private void deleteSpillFiles(int minID) {
+    File[] spillFiles = parent.getVideoName() != null ?
+      getSpillDirectory().listFiles() : null;
+    String name;
+
+    if(spillFiles != null) {
+      for(File file : spillFiles) {
+        name = file.getName();
+
+        //file names are in the format RRGGBB-ID.bin, leave any other files
+        if(!spillFileName.matcher(name).matches() ||
+          minID > 0 && Integer.parseInt(name.substring(
+          name.indexOf('-') + 1, name.lastIndexOf('.'))) < minID)
+        {
+          continue;
+        }
 
-    rec.oneDollar.clean();
+        if(!file.delete()) {
+          System.err.println("could not delete " + file.getPath());
+        }
+      }
+    }
   }
 
   /**
@@ -418,36 +1491,78 @@ class TrackingUtils {
    * @param frameDims the dimensions of the image frame for which blob
    *   detection is being performed, in pixels
    * @param frameOffset the xy coordinates of the inset frame origin, in pixels
+   * @param fullResolution true to read back every spilled point instead of
+   *   drawing their overview
    */
   void drawPaths(
     PGraphics buf,
     int[] frameDims,
-    int[] frameOffset
+    int[] frameOffset,
+    boolean fullResolution
   ) {
-    int i;
-    float[] point = null, point2;
-    java.util.Iterator<float[]> iter;
+    int i, j, numPaged;
+    float[] xs, ys;
+    float xScale = frameDims[0], yScale = frameDims[1];
+    float xOffset = frameOffset[0]-BeeTracker.viewBounds[0];
+    float yOffset = frameOffset[1]-BeeTracker.viewBounds[1];
 
     buf.strokeWeight(2);
     for(int color : colors) {
       buf.stroke(0xff000000 + color);
 
-      for(Deque<float[]> path : trackers.get(color).paths) {
-        iter = path.iterator();
-        if(iter.hasNext()) {
-          point = iter.next();
+      for(Trajectory path : trackers.get(color).paths) {
+        if(fullResolution && path.getSpilledCount() > 0) {
+          allocatePages();
+
+          //page in spilled points, joined to the points in memory
+          for(j = 0; j < path.getSpilledCount(); j += pageSize) {
+            numPaged = path.readSpilled(j, pageSize + 1, pageXs, pageYs, null);
+            if(numPaged < pageSize + 1 && path.size() > 0) {
+              pageXs[numPaged] = path.getX(0);
+              pageYs[numPaged] = path.getY(0);
+              numPaged++;
+            }
+
+            for(i = 1; i < numPaged; i++) {
+              buf.line(
+                pageXs[i-1]*xScale + xOffset,
+                pageYs[i-1]*yScale + yOffset,
+                pageXs[i]*xScale + xOffset,
+                pageYs[i]*yScale + yOffset
+              );
+            }
+          }
+        } else {
+          //draw the overview of spilled points, joined to the points in memory
+          for(i = 1; i < path.getOverviewSize(); i++) {
+            buf.line(
+              path.getOverviewX(i-1)*xScale + xOffset,
+              path.getOverviewY(i-1)*yScale + yOffset,
+              path.getOverviewX(i)*xScale + xOffset,
+              path.getOverviewY(i)*yScale + yOffset
+            );
+          }
+          if(path.getOverviewSize() > 0 && path.size() > 0) {
+            i = path.getOverviewSize() - 1;
+            buf.line(
+              path.getOverviewX(i)*xScale + xOffset,
+              path.getOverviewY(i)*yScale + yOffset,
+              path.getX(0)*xScale + xOffset,
+              path.getY(0)*yScale + yOffset
+            );
+          }
         }
-        while(iter.hasNext()) {
-          point2 = iter.next();
 
+        xs = path.getXs();
+        ys = path.getYs();
+
+        for(i = 1; i < path.size(); i++) {
           buf.line(
-            point[0]*frameDims[0]+frameOffset[0]-BeeTracker.viewBounds[0],
-            point[1]*frameDims[1]+frameOffset[1]-BeeTracker.viewBounds[1],
-            point2[0]*frameDims[0]+frameOffset[0]-BeeTracker.viewBounds[0],
-            point2[1]*frameDims[1]+frameOffset[1]-BeeTracker.viewBounds[1]
+            xs[i-1]*xScale + xOffset,
+            ys[i-1]*yScale + yOffset,
+            xs[i]*xScale + xOffset,
+            ys[i]*yScale + yOffset
           );
-
-          point = point2;
         }
       }
     }
@@ -543,9 +1658,7 @@ class TrackingUtils {
     img.ellipseMode(BeeTracker.CENTER);
 
 
-    FloatList times;
-    Float[] tmp;
-    HashMap<Float, String> events;
+    int type;
 
     for(int i = 1; i <= colors.size(); i++) {
       color = colors.get(i-1);
@@ -570,18 +1683,16 @@ class TrackingUtils {
       img.fill(0xff000000 + color);
       img.rectMode(BeeTracker.CENTER);
 
-      events = trackers.get(color).eventLabels;
-
-      tmp = events.keySet().toArray(new Float[0]);
-      Arrays.sort(tmp);
-      times = new FloatList((Object[])tmp);
+      for(j = 0; j < events.size(); j++) {
+        if(events.getColor(j) != color) {
+          continue;
+        }
 
-      for(j = 0; j < times.size(); j++) {
-        stamp = times.get(j);
+        stamp = events.getTime(j);
         stampOffset = stamp/duration*369;
-        String type = events.get(stamp);
+        type = events.getType(j);
 
-        if(type.equals(eventTypes[2])) {
+        if(type == 2) {
           img.triangle(
             stampOffset + 26,
             yOffset-37.5f,
@@ -591,14 +1702,14 @@ class TrackingUtils {
             yOffset-42.5f
           );
         } else {
-          if(type.equals(eventTypes[0])) {
+          if(type == 0) {
             img.rect(
               stampOffset + 26,
               yOffset-45,
               5,
               5
             );
-          } else if(type.equals(eventTypes[1])) {
+          } else if(type == 1) {
             img.ellipse(
               stampOffset + 26,
               yOffset-35,
@@ -677,90 +1788,4 @@ class TrackingUtils {
   void setEventType(boolean type) {
     waggleMode = type;
   }
-
-  /**
-   * Checks all trajectories for ingress/egress events. 
-   * @param frameDims the dimensions of the inset frame
-   * @param frameOffset the offset of the inset frame
-   * @param exitCenterXY the exit center coordinates, referenced to the inset frame
-   * @param exitAxes the exit semi-major axes, referenced to the inset frame
-   * @param time time stamp of the current frame in seconds
-   */
-  void eventCheckAll(
-    int[] frameDims,
-    int[] frameOffset,
-    float[] exitCenterXY,
-    float[] exitAxes,
-    float time
-  ) {
-    int i;
-    ColorTracker tracker;
-    for(int color : colors) {
-      tracker = trackers.get(color);
-      for(i = 0; i < tracker.paths.size(); i++) {
-        eventCheck(
-          tracker, i,
-          frameDims, frameOffset,
-          exitCenterXY, exitAxes,
-          time
-        );
-      }
-    }
-  }
-
-  /**
-   * Checks a trajectory for ingress/egress events.
-   * @param tracker the ColorTracker object containing the target trajectory
-   * @param index the index of the target trajectory
-   * @param frameDims the dimensions of the inset frame
-   * @param frameOffset the offset of the inset frame
-   * @param exitCenterXY the exit center coordinates, referenced to the inset frame
-   * @param exitAxes the exit semi-major axes, referenced to the inset frame
-   * @param time time stamp of the current frame in seconds
-   */
-  void eventCheck(
-    ColorTracker tracker,
-    int index,
-    int[] frameDims,
-    int[] frameOffset,
-    float[] exitCenterXY,
-    float[] exitAxes,
-    float time
-  ) {
-    Deque<float[]> path = tracker.paths.get(index);
-
-    if(!path.isEmpty()) {
-      float[] point = path.peekFirst();
-
-      float oldX = point[0]*frameDims[0]+frameOffset[0];
-      float oldY = point[1]*frameDims[1]+frameOffset[1];
-
-      point = path.peekLast();
-
-      float newX = point[0]*frameDims[0]+frameOffset[0];
-      float newY = point[1]*frameDims[1]+frameOffset[1];
-
-      boolean isOldPointInExit = isInExit(oldX, oldY, exitCenterXY, exitAxes);
-      boolean isNewPointInExit = isInExit(newX, newY, exitCenterXY, exitAxes);
-
-      int ID = tracker.IDs.get(index);
-
-      if(isOldPointInExit) {
-        if(!isNewPointInExit) {
-          //egress event
-          float eventTime = tracker.pathStartTimes.get(index);
-          tracker.eventLabels.put(eventTime, eventTypes[1]);
-          tracker.eventIDs.put(eventTime, ID);
-          tracker.eventTimes.append(eventTime);
-          parent.registerEvent(ID, eventTypes[1], eventTime);
-        }
-      } else if(isNewPointInExit) {
-        //ingress event
-        tracker.eventLabels.put(time, eventTypes[0]);
-        tracker.eventIDs.put(time, ID);
-        tracker.eventTimes.append(time);
-        parent.registerEvent(ID, eventTypes[0], time);
-      }
-    }
-  }
 }
@@ -0,0 +1,488 @@
+/*
+* BeeTracker
+* Copyright (C) 2016 Kay Choi
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package beetracker;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * @class Trajectory
+ * @author Kay Choi
+ * @date 19 Oct 16
+ * @description The path of a tracked bee, stored as parallel primitive
+ *   arrays of normalized xy coordinates and time stamps. Optionally, only
+ *   the most recent points are kept in memory, and older points are spilled
+ *   to an append-only file. A decimated overview of the spilled points is
+ *   kept in memory for drawing during playback, and the spill file is read
+ *   back in pages for export and full-resolution drawing.
+ */
+class Trajectory {
+  private static final int pointBytes = 12;
+  private static final int maxOverviewSize = 256;
+  private float[] xs, ys, times;
+  private int size = 0;
+  private float[] lastSource = null;
+  private final File spillFile;
+  private final float window;
+  private int numSpilled = 0;
+  private float firstX, firstY, firstTime;
+  private float[] overviewXs = null, overviewYs = null;
+  private int overviewSize = 0, overviewStride = 1;
+
+  /**
+   * Class constructor for a trajectory kept entirely in memory.
+   */
+  Trajectory() {
+    this(null, 0f);
+  }
+
+  /**
+   * Class constructor.
+   * @param spillFile the file to spill old points to, or null to keep all
+   *   points in memory
+   * @param window the minimum duration of the points to keep in memory, in
+   *   seconds
+   */
+  Trajectory(File spillFile, float window) {
+    this.spillFile = spillFile;
+    this.window = window;
+
+    xs = new float[16];
+    ys = new float[16];
+    times = new float[16];
+  }
+
+  /**
+   * Appends a point.
+   * @param x the normalized x coordinate
+   * @param y the normalized y coordinate
+   * @param time the time stamp in seconds
+   */
+  void append(float x, float y, float time) {
+    if(size == 0 && numSpilled == 0) {
+      firstX = x;
+      firstY = y;
+      firstTime = time;
+    }
+
+    //keep up to twice the window in memory, so spills are infrequent
+    if(spillFile != null && window > 0f && size > 0 &&
+      time - times[0] > 2f*window)
+    {
+      spill(time - window);
+    }
+
+    if(size == xs.length) {
+      xs = Arrays.copyOf(xs, size*2);
+      ys = Arrays.copyOf(ys, size*2);
+      times = Arrays.copyOf(times, size*2);
+    }
+
+    xs[size] = x;
+    ys[size] = y;
+    times[size] = time;
+    size++;
+  }
+
+  /**
+   * Appends a detected point, remembering its source so that the same
+   *   detection is not appended twice.
+   * @param point the normalized xy coordinates
+   * @param time the time stamp in seconds
+   */
+  void append(float[] point, float time) {
+    append(point[0], point[1], time);
+    lastSource = point;
+  }
+
+  /**
+   * @param point the normalized xy coordinates of a detection
+   * @return true if the detection was the last one appended
+   */
+  boolean isLastSource(float[] point) {
+    return point == lastSource;
+  }
+
+  /**
+   * Writes all points older than the specified time to the spill file and
+   *   removes them from memory.
+   * @param cutoff the time stamp of the oldest point to keep in memory
+   */
+  private void spill(float cutoff) {
+    int count = 0;
+    while(count < size - 1 && times[count] < cutoff) {
+      count++;
+    }
+
+    DataOutputStream out = null;
+    try {
+      spillFile.getParentFile().mkdirs();
+
+      out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(spillFile, true)));
+
+      for(int i = 0; i < count; i++) {
+        out.writeFloat(xs[i]);
+        out.writeFloat(ys[i]);
+        out.writeFloat(times[i]);
+      }
+      out.flush();
+
+      for(int i = 0; i < count; i++) {
+        addToOverview(numSpilled + i, xs[i], ys[i]);
+      }
+
+      System.arraycopy(xs, count, xs, 0, size - count);
+      System.arraycopy(ys, count, ys, 0, size - count);
+      System.arraycopy(times, count, times, 0, size - count);
+      size -= count;
+      numSpilled += count;
+    } catch(IOException e) {
+      //keep the points in memory
+      e.printStackTrace(System.err);
+    } finally {
+      if(out != null) {
+        try {
+          out.close();
+        } catch(IOException e) {
+          e.printStackTrace(System.err);
+        }
+      }
+    }
+  }
+
+  /**
+   * Adds a spilled point to the overview if it falls on the overview stride.
+   *   When the overview is full, every other point is discarded and the
+   *   stride is doubled, so the overview stays evenly spaced.
+   * @param index the index of the spilled point, where 0 is the oldest point
+   * @param x the normalized x coordinate
+   * @param y the normalized y coordinate
+   */
+  private void addToOverview(int index, float x, float y) {
+    if(index%overviewStride != 0) {
+      return;
+    }
+
+    if(overviewXs == null) {
+      overviewXs = new float[maxOverviewSize];
+      overviewYs = new float[maxOverviewSize];
+    } else if(overviewSize == maxOverviewSize) {
+      for(int i = 0; i < overviewSize/2; i++) {
+        overviewXs[i] = overviewXs[2*i];
+        overviewYs[i] = overviewYs[2*i];
+      }
+      overviewSize /= 2;
+      overviewStride *= 2;
+
+      if(index%overviewStride != 0) {
+        return;
+      }
+    }
+
+    overviewXs[overviewSize] = x;
+    overviewYs[overviewSize] = y;
+    overviewSize++;
+  }
+
+  /**
+   * Writes the points kept in memory and the spill state.
+   * @param out the stream to write to
+   * @throws IOException
+   */
+  void write(DataOutputStream out) throws IOException {
+    out.writeInt(numSpilled);
+    out.writeFloat(firstX);
+    out.writeFloat(firstY);
+    out.writeFloat(firstTime);
+    out.writeInt(overviewStride);
+    out.writeInt(overviewSize);
+    for(int i = 0; i < overviewSize; i++) {
+      out.writeFloat(overviewXs[i]);
+      out.writeFloat(overviewYs[i]);
+    }
+    out.writeInt(size);
+
+    for(int i = 0; i < size; i++) {
+      out.writeFloat(xs[i]);
+      out.writeFloat(ys[i]);
+      out.writeFloat(times[i]);
+    }
+  }
+
+  /**
+   * Replaces the contents of this trajectory with those written by write().
+   *   The spill file is truncated to the spilled points at the time of
+   *   writing.
+   * @param in the stream to read from
+   * @throws IOException
+   */
+  void read(DataInputStream in) throws IOException {
+    numSpilled = in.readInt();
+    firstX = in.readFloat();
+    firstY = in.readFloat();
+    firstTime = in.readFloat();
+    overviewStride = in.readInt();
+    overviewSize = in.readInt();
+    if(overviewSize > 0 && overviewXs == null) {
+      overviewXs = new float[maxOverviewSize];
+      overviewYs = new float[maxOverviewSize];
+    }
+    for(int i = 0; i < overviewSize; i++) {
+      overviewXs[i] = in.readFloat();
+      overviewYs[i] = in.readFloat();
+    }
+    size = in.readInt();
+    lastSource = null;
+
+    if(size > xs.length) {
+      xs = new float[size];
+      ys = new float[size];
+      times = new float[size];
+    }
+
+    for(int i = 0; i < size; i++) {
+      xs[i] = in.readFloat();
+      ys[i] = in.readFloat();
+      times[i] = in.readFloat();
+    }
+
+    if(spillFile != null && spillFile.exists()) {
+      RandomAccessFile file = new RandomAccessFile(spillFile, "rw");
+      try {
+        file.setLength((long)numSpilled*pointBytes);
+      } finally {
+        file.close();
+      }
+    }
+  }
+
+  /**
+   * Reads previously spilled points back from the spill file.
+   * @param start the index of the first spilled point to read, where 0 is
+   *   the oldest point
+   * @param count the maximum number of points to read
+   * @param xBuf the array to store the normalized x coordinates in
+   * @param yBuf the array to store the normalized y coordinates in
+   * @param timeBuf the array to store the time stamps in, or null
+   * @return the number of points read
+   */
+  int readSpilled(int start, int count, float[] xBuf, float[] yBuf,
+    float[] timeBuf)
+  {
+    int result = 0;
+    count = BeeTracker.min(count, numSpilled - start);
+
+    if(count > 0) {
+      RandomAccessFile in = null;
+      try {
+        in = new RandomAccessFile(spillFile, "r");
+        in.seek((long)start*pointBytes);
+
+        byte[] bytes = new byte[count*pointBytes];
+        in.readFully(bytes);
+        FloatBuffer floats = ByteBuffer.wrap(bytes).asFloatBuffer();
+
+        for(result = 0; result < count; result++) {
+          xBuf[result] = floats.get();
+          yBuf[result] = floats.get();
+          if(timeBuf != null) {
+            timeBuf[result] = floats.get();
+          } else {
+            floats.get();
+          }
+        }
+      } catch(IOException e) {
+        e.printStackTrace(System.err);
+      } finally {
+        if(in != null) {
+          try {
+            in.close();
+          } catch(IOException e) {
+            e.printStackTrace(System.err);
+          }
+        }
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * @return the number of points kept in memory
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * @return the number of points spilled to file
+   */
+  int getSpilledCount() {
+    return numSpilled;
+  }
+
+  /**
+   * @return the number of points in the overview of the spilled points
+   */
+  int getOverviewSize() {
+    return overviewSize;
+  }
+
+  /**
+   * @param index the overview index, where 0 is the oldest spilled point
+   * @return the normalized x coordinate of the overview point
+   */
+  float getOverviewX(int index) {
+    return overviewXs[index];
+  }
+
+  /**
+   * @param index the overview index, where 0 is the oldest spilled point
+   * @return the normalized y coordinate of the overview point
+   */
+  float getOverviewY(int index) {
+    return overviewYs[index];
+  }
+
+  /**
+   * @return true if there are no points
+   */
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * @return the normalized x coordinate of the first point, including
+   *   spilled points
+   */
+  float getFirstX() {
+    return firstX;
+  }
+
+  /**
+   * @return the normalized y coordinate of the first point, including
+   *   spilled points
+   */
+  float getFirstY() {
+    return firstY;
+  }
+
+  /**
+   * @return the time stamp of the first point, including spilled points
+   */
+  float getFirstTime() {
+    return firstTime;
+  }
+
+  /**
+   * @param index the point index, where 0 is the oldest point in memory
+   * @return the normalized x coordinate of the point
+   */
+  float getX(int index) {
+    return xs[index];
+  }
+
+  /**
+   * @param index the point index, where 0 is the oldest point in memory
+   * @return the normalized y coordinate of the point
+   */
+  float getY(int index) {
+    return ys[index];
+  }
+
+  /**
+   * @param index the point index, where 0 is the oldest point in memory
+   * @return the time stamp of the point in seconds
+   */
+  float getTime(int index) {
+    return times[index];
+  }
+
+  /**
+   * Finds the oldest point in memory at or after a time stamp.
+   * @param time the time stamp in seconds
+   * @return the index of the oldest point with a time stamp of at least
+   *   time, or size() if there is none
+   */
+  int findTime(float time) {
+    int low = 0, high = size, mid;
+
+    while(low < high) {
+      mid = (low + high) >>> 1;
+
+      if(times[mid] < time) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+
+    return low;
+  }
+
+  /**
+   * @return the normalized x coordinate of the newest point
+   */
+  float getLastX() {
+    return xs[size-1];
+  }
+
+  /**
+   * @return the normalized y coordinate of the newest point
+   */
+  float getLastY() {
+    return ys[size-1];
+  }
+
+  /**
+   * Provides direct read access to the x coordinates. Only the first size()
+   *   elements are valid, and the array is replaced when the trajectory grows.
+   * @return the backing array of normalized x coordinates
+   */
+  float[] getXs() {
+    return xs;
+  }
+
+  /**
+   * Provides direct read access to the y coordinates. Only the first size()
+   *   elements are valid, and the array is replaced when the trajectory grows.
+   * @return the backing array of normalized y coordinates
+   */
+  float[] getYs() {
+    return ys;
+  }
+
+  /**
+   * Provides direct read access to the time stamps. Only the first size()
+   *   elements are valid, and the array is replaced when the trajectory grows.
+   * @return the backing array of time stamps
+   */
+  float[] getTimes() {
+    return times;
+  }
+}
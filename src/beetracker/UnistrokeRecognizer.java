@@ -0,0 +1,470 @@
+/*
+* BeeTracker
+* Copyright (C) 2016 Kay Choi
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package beetracker;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @class UnistrokeRecognizer
+ * @author Kay Choi
+ * @date 19 Oct 16
+ * @description A $1 unistroke recognizer. Candidates are compared against
+ *   each template at the rotation found in closed form by Protractor, and
+ *   the comparison stops as soon as the candidate cannot reach the minimum
+ *   score. Templates are indexed by the mean distance of their points from
+ *   the centroid, which together with the per-point distances bounds the
+ *   distance to a candidate at any rotation, so only templates that could
+ *   reach their minimum score are compared in full. Templates are read-only
+ *   once added, and all working memory is supplied by the caller, so one
+ *   instance may be shared between threads.
+ */
+class UnistrokeRecognizer {
+  private static final float squareSize = 250f;
+  private static final float halfDiagonal =
+    .5f*(float)Math.sqrt(2f*squareSize*squareSize);
+  private static final float maxAngle = (float)(Math.PI/4.0);
+  private final int numPoints;
+  private final List<Template> templates = new ArrayList<>();
+  private float maxTemplateDist = 0f;
+
+  /**
+   * Class constructor.
+   * @param numPoints the number of points to resample gestures to
+   */
+  UnistrokeRecognizer(int numPoints) {
+    this.numPoints = numPoints;
+  }
+
+  /**
+   * @class Template
+   * @author Kay Choi
+   * @date 19 Oct 16
+   * @description A normalized template gesture and its index descriptors.
+   */
+  private static class Template {
+    final String name;
+    final float[] points;
+    final float[] radii;
+    final float meanRadius;
+    final float minScore;
+
+    /**
+     * Class constructor.
+     * @param name the name of the template
+     * @param points the normalized template points
+     * @param numPoints the number of template points
+     * @param minScore the minimum score for a match
+     */
+    Template(String name, float[] points, int numPoints, float minScore) {
+      this.name = name;
+      this.points = points;
+      this.minScore = minScore;
+      radii = new float[numPoints];
+      meanRadius = findRadii(points, numPoints, radii, 0);
+    }
+  }
+
+  /**
+   * Adds a template gesture. All templates must be added before the
+   *   recognizer is shared between threads.
+   * @param name the name of the template
+   * @param points the template points as {x0, y0, x1, y1, ...}
+   * @param count the number of template points
+   * @param minScore the minimum score for a candidate to match the template
+   */
+  void addTemplate(String name, float[] points, int count, float minScore) {
+    float[] template = new float[2*numPoints];
+
+    if(resample(points, count, numPoints, template)) {
+      normalize(template);
+
+      addNormalizedTemplate(name, template, minScore);
+    }
+  }
+
+  /**
+   * Adds a template gesture that has already been resampled and normalized,
+   *   such as one returned by getTemplatePoints().
+   * @param name the name of the template
+   * @param points the normalized template points
+   * @param minScore the minimum score for a candidate to match the template
+   */
+  void addNormalizedTemplate(String name, float[] points, float minScore) {
+    Template template = new Template(name, points, numPoints, minScore);
+
+    templates.add(
+      findTemplate(template.meanRadius),
+      template
+    );
+
+    maxTemplateDist = Math.max(
+      maxTemplateDist,
+      (1f - minScore)*halfDiagonal
+    );
+  }
+
+  /**
+   * @return the number of points that candidates must be resampled to
+   */
+  int getNumPoints() {
+    return numPoints;
+  }
+
+  /**
+   * @return the number of templates
+   */
+  int getTemplateCount() {
+    return templates.size();
+  }
+
+  /**
+   * @param index the template index
+   * @return the name of the template
+   */
+  String getTemplateName(int index) {
+    return templates.get(index).name;
+  }
+
+  /**
+   * @param index the template index
+   * @return the minimum score for a candidate to match the template
+   */
+  float getTemplateMinScore(int index) {
+    return templates.get(index).minScore;
+  }
+
+  /**
+   * @param index the template index
+   * @return the normalized template points, which must not be modified
+   */
+  float[] getTemplatePoints(int index) {
+    return templates.get(index).points;
+  }
+
+  /**
+   * Scores a candidate against all templates.
+   * @param candidate the candidate points, already resampled to
+   *   getNumPoints() equally spaced points, as {x0, y0, x1, y1, ...}
+   * @param scratch working memory with at least 3*getNumPoints() elements
+   * @param result an array for the index of the best template, or null
+   * @return the best score, or 0 if no template reaches its minimum score
+   */
+  float recognize(float[] candidate, float[] scratch, int[] result) {
+    return recognize(candidate, scratch, result, 0f);
+  }
+
+  /**
+   * Scores a candidate against all templates, accepting scores up to a
+   *   margin below the minimum score of each template. Used to find near
+   *   matches; callers compare the score with the minimum score of the
+   *   returned template to tell them from matches.
+   * @param candidate the candidate points, already resampled to
+   *   getNumPoints() equally spaced points, as {x0, y0, x1, y1, ...}
+   * @param scratch working memory with at least 3*getNumPoints() elements
+   * @param result an array for the index of the best template, or null
+   * @param margin how far below its minimum score a template is accepted
+   * @return the best score, or 0 if no template comes within the margin of
+   *   its minimum score
+   */
+  float recognize(
+    float[] candidate,
+    float[] scratch,
+    int[] result,
+    float margin
+  ) {
+    System.arraycopy(candidate, 0, scratch, 0, 2*numPoints);
+    normalize(scratch);
+
+    float meanRadius = findRadii(scratch, numPoints, scratch, 2*numPoints);
+    float maxRadiusDist = maxTemplateDist + margin*halfDiagonal;
+    float bestScore = 0f, score, minScore, maxDist;
+    Template template;
+
+    if(result != null) {
+      result[0] = -1;
+    }
+
+    //rotation preserves the distance of each point from the centroid, so
+    //  templates with a distant mean radius cannot reach their minimum score
+    for(
+      int i = findTemplate(meanRadius - maxRadiusDist);
+      i < templates.size();
+      i++
+    ) {
+      template = templates.get(i);
+
+      if(template.meanRadius > meanRadius + maxRadiusDist) {
+        break;
+      }
+
+      //later templates must also beat the best score so far
+      minScore = template.minScore - margin;
+      maxDist = (1f - Math.max(minScore, bestScore))*halfDiagonal;
+
+      if(
+        Math.abs(template.meanRadius - meanRadius) > maxDist ||
+        radialDistance(scratch, template.radii, maxDist) > maxDist
+      ) {
+        continue;
+      }
+
+      score = 1f - distance(scratch, template.points, maxDist)/halfDiagonal;
+
+      if(score >= minScore && score > bestScore) {
+        bestScore = score;
+
+        if(result != null) {
+          result[0] = i;
+        }
+      }
+    }
+
+    return bestScore;
+  }
+
+  /**
+   * Finds the position of a mean radius in the template index.
+   * @param meanRadius the mean radius
+   * @return the index of the first template with a mean radius of at least
+   *   meanRadius, or the number of templates if there is none
+   */
+  private int findTemplate(float meanRadius) {
+    int low = 0, high = templates.size(), mid;
+
+    while(low < high) {
+      mid = (low + high) >>> 1;
+
+      if(templates.get(mid).meanRadius < meanRadius) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+
+    return low;
+  }
+
+  /**
+   * Finds the distance of each normalized point from the centroid.
+   * @param points the normalized points
+   * @param numPoints the number of points
+   * @param result the array to write the distances to
+   * @param offset the index of the first distance in result
+   * @return the mean distance
+   */
+  private static float findRadii(float[] points, int numPoints,
+    float[] result, int offset)
+  {
+    float sum = 0f;
+
+    for(int i = 0; i < numPoints; i++) {
+      result[offset+i] = (float)Math.sqrt(
+        points[2*i]*points[2*i] + points[2*i+1]*points[2*i+1]
+      );
+      sum += result[offset+i];
+    }
+
+    return sum/numPoints;
+  }
+
+  /**
+   * Finds a lower bound of the distance between a normalized candidate and
+   *   template at any rotation, from the distances of their points from the
+   *   centroid.
+   * @param scratch the normalized candidate, followed by its point radii
+   * @param radii the template point radii
+   * @param maxDist the distance beyond which the result is not needed
+   * @return the average difference in radius, or infinity if it exceeds
+   *   maxDist
+   */
+  private float radialDistance(float[] scratch, float[] radii,
+    float maxDist)
+  {
+    float maxSum = maxDist*numPoints, sum = 0f;
+
+    for(int i = 0; i < numPoints; i++) {
+      sum += Math.abs(scratch[2*numPoints+i] - radii[i]);
+
+      if(sum > maxSum) {
+        return Float.POSITIVE_INFINITY;
+      }
+    }
+
+    return sum/numPoints;
+  }
+
+  /**
+   * Finds the average distance between corresponding points of a
+   *   normalized candidate and template, with the candidate rotated by the
+   *   angle minimizing the squared distance.
+   * @param candidate the normalized candidate points
+   * @param template the normalized template points
+   * @param maxDist the distance beyond which the result is not needed
+   * @return the average point distance, or infinity if it exceeds maxDist
+   */
+  private float distance(float[] candidate, float[] template, float maxDist) {
+    float a = 0f, b = 0f, cx, cy, tx, ty, dx, dy;
+    int i;
+
+    for(i = 0; i < 2*numPoints; i += 2) {
+      cx = candidate[i];
+      cy = candidate[i+1];
+      tx = template[i];
+      ty = template[i+1];
+
+      a += tx*cx + ty*cy;
+      b += ty*cx - tx*cy;
+    }
+
+    float angle = BeeTracker.constrain(
+      (float)Math.atan2(b, a),
+      -maxAngle,
+      maxAngle
+    );
+    float cos = (float)Math.cos(angle), sin = (float)Math.sin(angle);
+    float maxSum = maxDist*numPoints, sum = 0f;
+
+    for(i = 0; i < 2*numPoints; i += 2) {
+      cx = candidate[i];
+      cy = candidate[i+1];
+      dx = cx*cos - cy*sin - template[i];
+      dy = cx*sin + cy*cos - template[i+1];
+      sum += (float)Math.sqrt(dx*dx + dy*dy);
+
+      if(sum > maxSum) {
+        return Float.POSITIVE_INFINITY;
+      }
+    }
+
+    return sum/numPoints;
+  }
+
+  /**
+   * Rotates resampled points to their indicative angle, scales them to a
+   *   square and translates their centroid to the origin, in place.
+   * @param points the resampled points
+   */
+  private void normalize(float[] points) {
+    float cx = 0f, cy = 0f, x, y;
+    int i;
+
+    for(i = 0; i < 2*numPoints; i += 2) {
+      cx += points[i];
+      cy += points[i+1];
+    }
+    cx /= numPoints;
+    cy /= numPoints;
+
+    float angle = (float)Math.atan2(cy - points[1], cx - points[0]);
+    float cos = (float)Math.cos(-angle), sin = (float)Math.sin(-angle);
+    float xMin = Float.MAX_VALUE, xMax = -Float.MAX_VALUE;
+    float yMin = Float.MAX_VALUE, yMax = -Float.MAX_VALUE;
+
+    for(i = 0; i < 2*numPoints; i += 2) {
+      x = points[i] - cx;
+      y = points[i+1] - cy;
+      points[i] = x*cos - y*sin;
+      points[i+1] = x*sin + y*cos;
+
+      xMin = Math.min(xMin, points[i]);
+      xMax = Math.max(xMax, points[i]);
+      yMin = Math.min(yMin, points[i+1]);
+      yMax = Math.max(yMax, points[i+1]);
+    }
+
+    float xScale = squareSize/Math.max(xMax - xMin, 1e-6f);
+    float yScale = squareSize/Math.max(yMax - yMin, 1e-6f);
+
+    cx = cy = 0f;
+    for(i = 0; i < 2*numPoints; i += 2) {
+      points[i] *= xScale;
+      points[i+1] *= yScale;
+      cx += points[i];
+      cy += points[i+1];
+    }
+    cx /= numPoints;
+    cy /= numPoints;
+
+    for(i = 0; i < 2*numPoints; i += 2) {
+      points[i] -= cx;
+      points[i+1] -= cy;
+    }
+  }
+
+  /**
+   * Resamples a path into equally spaced points.
+   * @param points the path points as {x0, y0, x1, y1, ...}
+   * @param count the number of path points
+   * @param n the number of points to resample to
+   * @param result an array with at least 2*n elements
+   * @return false if the path has no length
+   */
+  static boolean resample(float[] points, int count, int n, float[] result) {
+    float length = 0f;
+    int i;
+
+    for(i = 1; i < count; i++) {
+      length += BeeTracker.dist(
+        points[2*i-2], points[2*i-1],
+        points[2*i], points[2*i+1]
+      );
+    }
+
+    if(count < 2 || length <= 0f) {
+      return false;
+    }
+
+    float interval = length/(n - 1), dist = 0f, segment, t;
+    float px = points[0], py = points[1], qx, qy;
+    int k = 1;
+
+    result[0] = px;
+    result[1] = py;
+
+    for(i = 1; i < count && k < n; i++) {
+      qx = points[2*i];
+      qy = points[2*i+1];
+      segment = BeeTracker.dist(px, py, qx, qy);
+
+      while(k < n && dist + segment >= interval) {
+        t = (interval - dist)/segment;
+        px += (qx - px)*t;
+        py += (qy - py)*t;
+        result[2*k] = px;
+        result[2*k+1] = py;
+        k++;
+
+        segment = BeeTracker.dist(px, py, qx, qy);
+        dist = 0f;
+      }
+
+      dist += segment;
+      px = qx;
+      py = qy;
+    }
+
+    //rounding may leave the last point unfilled
+    for(; k < n; k++) {
+      result[2*k] = points[2*count-2];
+      result[2*k+1] = points[2*count-1];
+    }
+
+    return true;
+  }
+}
@@ -0,0 +1,93 @@
+/*
+* BeeTracker
+* Copyright (C) 2016 Kay Choi
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package beetracker;
+
+import java.util.Locale;
+
+/**
+ * @class WaggleRun
+ * @author Kay Choi
+ * @date 19 Oct 16
+ * @description An immutable record of a single waggle run within a dance.
+ */
+final class WaggleRun {
+  static final String csvHeader =
+    "\"bee ID\",color,dance,run,\"start time\",duration,angle";
+
+  final int id;
+  final int color;
+  final int dance;
+  final int run;
+  final float startTime;
+  final float duration;
+  final float angle;
+
+  /**
+   * Class constructor.
+   * @param id the ID of the trajectory
+   * @param color the six-digit hexadecimal RGB value of the trajectory
+   * @param dance the number of the dance of the bee, starting from 1
+   * @param run the number of the run within the dance, starting from 1
+   * @param startTime the time stamp of the start of the run in seconds
+   * @param duration the duration of the run in seconds
+   * @param angle the direction of the run in degrees clockwise from
+   *   vertically upward
+   */
+  WaggleRun(
+    int id,
+    int color,
+    int dance,
+    int run,
+    float startTime,
+    float duration,
+    float angle
+  ) {
+    this.id = id;
+    this.color = color;
+    this.dance = dance;
+    this.run = run;
+    this.startTime = startTime;
+    this.duration = duration;
+    this.angle = angle;
+  }
+
+  /**
+   * @return the time stamp of the end of the run in seconds
+   */
+  float getEndTime() {
+    return startTime + duration;
+  }
+
+  /**
+   * @return the run as a comma-separated line, without a line terminator
+   */
+  String toCSV() {
+    return String.format(
+      Locale.ROOT,
+      "%d,#%06x,%d,%d,%.2f,%.2f,%.1f",
+      id,
+      color,
+      dance,
+      run,
+      startTime,
+      duration,
+      angle
+    );
+  }
+}
@@ -0,0 +1,362 @@
+/*
+* BeeTracker
+* Copyright (C) 2016 Kay Choi
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package beetracker;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * @class WaggleRunDecoder
+ * @author Kay Choi
+ * @date 19 Oct 16
+ * @description Segments the trajectory of a dancing bee into waggle runs
+ *   and return loops as its points arrive. Each point is classified from
+ *   the motion features of the points within a short segment ending at it:
+ *   a waggle run moves forward while zigzagging from side to side, so its
+ *   path is much longer than its displacement, while a return loop is a
+ *   smooth curve. Runs separated by more
+ *   than the longest return loop belong to different dances. Only the
+ *   points of the current segment are kept.
+ */
+class WaggleRunDecoder {
+  private static final float segmentDuration = .25f;
+  private static final float minFlipRate = .3f;
+  private static final float minTortuosity = 1.5f;
+  private static final float minRunSpeed = .02f;
+  private static final float maxRunGap = .15f;
+  private static final float minRunDuration = .2f;
+  private static final float maxReturnDuration = 5f;
+  private static final int initialCapacity = 16;
+  private final int id, color;
+  private final float startTime, minEndTime;
+  private int capacity = initialCapacity;
+  private float[] xs, ys, times, steps;
+  private double pathLength = 0.0;
+  private int start = 0, count = 0;
+  private int consumed = -1;
+  private int xScale = -1, yScale = -1;
+  private OscillationFilter filter;
+  private boolean inRun = false;
+  private float runStartTime, runStartX, runStartY;
+  private float runEndTime, runEndX, runEndY;
+  private float lastRunEndTime = Float.NEGATIVE_INFINITY;
+  private int danceCount = 0, runCount = 0;
+
+  /**
+   * Class constructor.
+   * @param id the ID of the trajectory
+   * @param color the six-digit hexadecimal RGB value of the trajectory
+   * @param startTime the time stamp of the oldest point to decode, in
+   *   seconds
+   * @param minEndTime the time stamp in seconds at or before which runs
+   *   ending are decoded but not reported, as they already were
+   */
+  WaggleRunDecoder(int id, int color, float startTime, float minEndTime) {
+    this.id = id;
+    this.color = color;
+    this.startTime = startTime;
+    this.minEndTime = minEndTime;
+
+    xs = new float[capacity];
+    ys = new float[capacity];
+    times = new float[capacity];
+    steps = new float[capacity];
+    filter = new OscillationFilter(capacity);
+  }
+
+  /**
+   * @return the ID of the trajectory
+   */
+  int getID() {
+    return id;
+  }
+
+  /**
+   * Decodes the trajectory points added since the last call. On the first
+   *   call, decoding starts from the start time.
+   * @param path the trajectory
+   * @param frameDims the dimensions of the inset frame
+   * @param runs the list to add completed runs to
+   */
+  void update(Trajectory path, int[] frameDims, List<WaggleRun> runs) {
+    if(path.isEmpty()) {
+      return;
+    }
+
+    int total = path.getSpilledCount() + path.size(), first;
+
+    if(frameDims[0] != xScale || frameDims[1] != yScale) {
+      finish(runs);
+
+      xScale = frameDims[0];
+      yScale = frameDims[1];
+      start = count = 0;
+      pathLength = 0.0;
+      filter.reset();
+    }
+
+    if(consumed < 0) {
+      first = path.findTime(startTime);
+    } else {
+      first = path.size() - (total - consumed);
+    }
+
+    for(int i = BeeTracker.max(first, 0); i < path.size(); i++) {
+      append(
+        path.getX(i)*xScale,
+        path.getY(i)*yScale,
+        path.getTime(i),
+        runs
+      );
+    }
+
+    consumed = total;
+  }
+
+  /**
+   * Ends the current run, if any.
+   * @param runs the list to add the run to
+   */
+  void finish(List<WaggleRun> runs) {
+    if(inRun) {
+      endRun(runs);
+    }
+  }
+
+  /**
+   * Appends a point to the segment and classifies it.
+   * @param x the x coordinate in pixels
+   * @param y the y coordinate in pixels
+   * @param time the time stamp in seconds
+   * @param runs the list to add completed runs to
+   */
+  private void append(float x, float y, float time, List<WaggleRun> runs) {
+    float step = 0f;
+    int index;
+
+    if(count > 0) {
+      index = (start + count - 1)%capacity;
+      step = BeeTracker.dist(xs[index], ys[index], x, y);
+    }
+
+    while(count > 0 && times[start] < time - segmentDuration) {
+      pathLength -= steps[start];
+      start = (start + 1)%capacity;
+      count--;
+      filter.removeOldest();
+    }
+
+    if(count == capacity) {
+      grow();
+    }
+
+    index = (start + count)%capacity;
+    xs[index] = x;
+    ys[index] = y;
+    times[index] = time;
+    steps[index] = step;
+    pathLength += step;
+    count++;
+    filter.append(x, y, -1f);
+
+    //require most of a segment before classifying
+    float span = time - times[start];
+    float chord = BeeTracker.dist(xs[start], ys[start], x, y);
+    boolean isWaggling = count > 2 && span >= .5f*segmentDuration &&
+      chord >= minRunSpeed*span*xScale &&
+      pathLength - steps[start] >= minTortuosity*chord &&
+      filter.getFlipRate() >= minFlipRate;
+
+    //segments straddling either end of a run are partly return loop, so
+    //  runs are bounded by the midpoints of their segments
+    if(isWaggling) {
+      index = (start + count/2)%capacity;
+
+      if(!inRun) {
+        inRun = true;
+        runStartTime = times[index];
+        runStartX = xs[index];
+        runStartY = ys[index];
+      }
+
+      runEndTime = times[index];
+      runEndX = xs[index];
+      runEndY = ys[index];
+    } else if(inRun && time - runEndTime > maxRunGap) {
+      endRun(runs);
+    }
+  }
+
+  /**
+   * Ends the current run, reporting it if it is long enough.
+   * @param runs the list to add the run to
+   */
+  private void endRun(List<WaggleRun> runs) {
+    inRun = false;
+
+    float duration = runEndTime - runStartTime;
+    if(duration < minRunDuration) {
+      return;
+    }
+
+    if(runStartTime - lastRunEndTime > maxReturnDuration) {
+      danceCount++;
+      runCount = 0;
+    }
+    runCount++;
+    lastRunEndTime = runEndTime;
+
+    if(runEndTime > minEndTime) {
+      //image y increases downward
+      runs.add(new WaggleRun(
+        id,
+        color,
+        danceCount,
+        runCount,
+        runStartTime,
+        duration,
+        BeeTracker.degrees((float)Math.atan2(
+          runEndX - runStartX,
+          runStartY - runEndY
+        ))
+      ));
+    }
+  }
+
+  /**
+   * Writes the decoder state, including the current segment and the dance
+   *   and run counters.
+   * @param out the stream to write to
+   * @throws IOException
+   */
+  void write(DataOutputStream out) throws IOException {
+    int index;
+
+    out.writeInt(id);
+    out.writeInt(color);
+    out.writeFloat(startTime);
+    out.writeFloat(minEndTime);
+    out.writeInt(capacity);
+    out.writeInt(count);
+
+    for(int i = 0; i < count; i++) {
+      index = (start + i)%capacity;
+      out.writeFloat(xs[index]);
+      out.writeFloat(ys[index]);
+      out.writeFloat(times[index]);
+      out.writeFloat(steps[index]);
+    }
+
+    out.writeDouble(pathLength);
+    out.writeInt(consumed);
+    out.writeInt(xScale);
+    out.writeInt(yScale);
+    filter.write(out);
+
+    out.writeBoolean(inRun);
+    out.writeFloat(runStartTime);
+    out.writeFloat(runStartX);
+    out.writeFloat(runStartY);
+    out.writeFloat(runEndTime);
+    out.writeFloat(runEndX);
+    out.writeFloat(runEndY);
+    out.writeFloat(lastRunEndTime);
+    out.writeInt(danceCount);
+    out.writeInt(runCount);
+  }
+
+  /**
+   * Reads a decoder state written by write().
+   * @param in the stream to read from
+   * @return the WaggleRunDecoder
+   * @throws IOException
+   */
+  static WaggleRunDecoder read(DataInputStream in) throws IOException {
+    WaggleRunDecoder result = new WaggleRunDecoder(
+      in.readInt(),
+      in.readInt(),
+      in.readFloat(),
+      in.readFloat()
+    );
+
+    result.capacity = in.readInt();
+    result.count = in.readInt();
+    result.xs = new float[result.capacity];
+    result.ys = new float[result.capacity];
+    result.times = new float[result.capacity];
+    result.steps = new float[result.capacity];
+
+    for(int i = 0; i < result.count; i++) {
+      result.xs[i] = in.readFloat();
+      result.ys[i] = in.readFloat();
+      result.times[i] = in.readFloat();
+      result.steps[i] = in.readFloat();
+    }
+
+    result.pathLength = in.readDouble();
+    result.consumed = in.readInt();
+    result.xScale = in.readInt();
+    result.yScale = in.readInt();
+    result.filter = new OscillationFilter(result.capacity);
+    result.filter.read(in);
+
+    result.inRun = in.readBoolean();
+    result.runStartTime = in.readFloat();
+    result.runStartX = in.readFloat();
+    result.runStartY = in.readFloat();
+    result.runEndTime = in.readFloat();
+    result.runEndX = in.readFloat();
+    result.runEndY = in.readFloat();
+    result.lastRunEndTime = in.readFloat();
+    result.danceCount = in.readInt();
+    result.runCount = in.readInt();
+
+    return result;
+  }
+
+  /**
+   * Doubles the capacity of the segment ring buffer.
+   */
+  private void grow() {
+    int newCapacity = 2*capacity, index;
+    float[] newXs = new float[newCapacity];
+    float[] newYs = new float[newCapacity];
+    float[] newTimes = new float[newCapacity];
+    float[] newSteps = new float[newCapacity];
+
+    for(int i = 0; i < count; i++) {
+      index = (start + i)%capacity;
+      newXs[i] = xs[index];
+      newYs[i] = ys[index];
+      newTimes[i] = times[index];
+      newSteps[i] = steps[index];
+    }
+
+    xs = newXs;
+    ys = newYs;
+    times = newTimes;
+    steps = newSteps;
+    capacity = newCapacity;
+    start = 0;
+
+    filter.grow(newCapacity);
+  }
+}